@@ -0,0 +1,74 @@
+package net.jeremybrooks.iris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Painting a display render: drawing it as ImageIO decodes it (3 byte BGR), and drawing it after
+ * {@link CompatibleImages} has converted it to the layout of the destination.
+ *
+ * The benchmarks run headless, so the destination is an int RGB image standing in for a 24 bit
+ * screen; on a real screen the compatible image is also eligible for acceleration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class BlitBenchmark {
+  @Param({"1920x1080", "3840x2160"})
+  public String display;
+
+  private BufferedImage decoded;
+  private BufferedImage compatible;
+  private Graphics2D screen;
+
+  @Setup
+  public void setUp() throws Exception {
+    String[] size = this.display.split("x");
+    int width = Integer.parseInt(size[0]);
+    int height = Integer.parseInt(size[1]);
+    BufferedImage destination = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    this.screen = destination.createGraphics();
+    GraphicsConfiguration configuration = this.screen.getDeviceConfiguration();
+    this.decoded = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = this.decoded.createGraphics();
+    g.drawImage(Corpus.generate(width, height), 0, 0, null);
+    g.dispose();
+    this.compatible = CompatibleImages.toCompatible(this.decoded, configuration);
+    if (!CompatibleImages.isCompatible(this.compatible, configuration)) {
+      throw new IllegalStateException("Image was not converted.");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.screen.dispose();
+  }
+
+  @Benchmark
+  public boolean drawDecoded() {
+    return this.screen.drawImage(this.decoded, 0, 0, null);
+  }
+
+  @Benchmark
+  public boolean drawCompatible() {
+    return this.screen.drawImage(this.compatible, 0, 0, null);
+  }
+}
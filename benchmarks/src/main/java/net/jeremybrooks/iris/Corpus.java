@@ -0,0 +1,92 @@
+package net.jeremybrooks.iris;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generated test images at camera sizes, shared by the benchmarks.
+ *
+ * Images are written to the directory in the iris.corpus system property (default target/corpus)
+ * the first time they are needed and reused after that. The content is generated from a fixed
+ * seed, so every run and every machine benchmarks the same bytes.
+ */
+final class Corpus {
+  private Corpus() {
+  }
+
+  /**
+   * Get a corpus image, creating it if it doesn't exist.
+   *
+   * @param megapixels image size: 12, 24, 45 or 100.
+   * @param format     "jpg" or "png".
+   * @return the image file.
+   * @throws IOException if the image cannot be written.
+   */
+  static synchronized File get(int megapixels, String format) throws IOException {
+    int width;
+    int height;
+    switch (megapixels) {
+      case 12:
+        width = 4240;
+        height = 2832;
+        break;
+      case 24:
+        width = 6000;
+        height = 4000;
+        break;
+      case 45:
+        width = 8256;
+        height = 5504;
+        break;
+      case 100:
+        width = 12288;
+        height = 8192;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported size " + megapixels);
+    }
+    File directory = new File(System.getProperty("iris.corpus", "target/corpus"));
+    File file = new File(directory, String.format("corpus_%d.%s", megapixels, format));
+    if (!file.exists()) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create " + directory.getAbsolutePath());
+      }
+      File tmp = new File(directory, file.getName() + ".tmp");
+      if (!ImageIO.write(generate(width, height), format, tmp)) {
+        throw new IOException("No writer for " + format);
+      }
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not rename " + tmp.getAbsolutePath());
+      }
+    }
+    return file;
+  }
+
+  /*
+   * Smooth gradients and shapes with some sensor-like noise, so the images compress about as well
+   * as photographs do instead of collapsing to a few kilobytes.
+   */
+  static BufferedImage generate(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(42);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double wave = Math.sin(x / 97.0) * Math.cos(y / 131.0);
+        int r = clamp(255 * x / width + (int) (40 * wave) + random.nextInt(17) - 8);
+        int g = clamp(255 * y / height + (int) (40 * Math.sin((x + y) / 53.0)) + random.nextInt(17) - 8);
+        int b = clamp(128 + (int) (100 * wave) + random.nextInt(17) - 8);
+        row[x] = (r << 16) | (g << 8) | b;
+      }
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    return image;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+}
@@ -0,0 +1,65 @@
+package net.jeremybrooks.iris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Show path: fitting and scaling an image to a full screen display.
+ *
+ * scaleToFit measures only the fit calculation and scale of an image that is already decoded;
+ * render adds the decode, like a render cache miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true",
+    "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class DisplayBenchmark {
+  @Param({"12", "24", "45"})
+  public int megapixels;
+
+  @Param({"jpg", "png"})
+  public String format;
+
+  @Param({"1920x1080", "3840x2160"})
+  public String display;
+
+  private File file;
+  private BufferedImage decoded;
+  private Rectangle bounds;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.file = Corpus.get(this.megapixels, this.format);
+    this.decoded = ImageIO.read(this.file);
+    String[] size = this.display.split("x");
+    this.bounds = new Rectangle(0, 0, Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+  }
+
+  @Benchmark
+  public BufferedImage scaleToFit() {
+    return DisplayRenderer.scaleToFit(this.decoded, this.bounds);
+  }
+
+  @Benchmark
+  public BufferedImage render() throws Exception {
+    return DisplayRenderer.render(this.file, this.bounds);
+  }
+}
@@ -0,0 +1,59 @@
+package net.jeremybrooks.iris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full decode of a source file through ImageIO's FileImageInputStream against a
+ * {@link MappedImageInputStream} over a {@link MappedFile}.
+ *
+ * The 100 megapixel PNG is a few hundred megabytes. To measure a network share, point
+ * iris.corpus at a directory on it (-jvmArgsAppend -Diris.corpus=/mnt/share/corpus); the
+ * corpus is written there on the first run. The files stay in the page cache between
+ * iterations, so drop the cache between runs to measure cold reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true",
+    "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class ImageInputBenchmark {
+  @Param({"24", "100"})
+  public int megapixels;
+
+  @Param({"jpg", "png"})
+  public String format;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.file = Corpus.get(this.megapixels, this.format);
+  }
+
+  @Benchmark
+  public BufferedImage fileStream() throws Exception {
+    return ImageIO.read(this.file);
+  }
+
+  @Benchmark
+  public BufferedImage mapped() throws Exception {
+    return DisplayRenderer.decode(this.file);
+  }
+}
@@ -0,0 +1,98 @@
+package net.jeremybrooks.iris;
+
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JList;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * List cell rendering throughput: configuring the {@link LabelListCellRenderer} for a row and
+ * painting it, as the list does for every visible row on each repaint.
+ *
+ * With 20 rows the decoded thumbnails stay in the decoded cache, as when the list is repainted in
+ * place; with 1000 rows every thumbnail is decoded as it is painted, as when scrolling quickly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class RendererBenchmark {
+  @Param({"20", "1000"})
+  public int rows;
+
+  private JList<File> list;
+  private LabelListCellRenderer renderer;
+  private BufferedImage canvas;
+  private Graphics2D graphics;
+  private int index;
+  private Path directory;
+
+  @Setup
+  public void setUp() throws Exception {
+    BufferedImage source = Corpus.generate(600, 400);
+    // 50 images to a folder, so the folder labels are painted too; thumbnails are looked up by
+    // fingerprint, so each file needs distinct content
+    this.directory = Files.createTempDirectory("iris-renderer");
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < this.rows; i++) {
+      Path folder = Files.createDirectories(this.directory.resolve(String.format("event-%02d", i / 50)));
+      File file = Files.write(folder.resolve(String.format("IMG_%05d.jpg", i)),
+          Integer.toString(i).getBytes(StandardCharsets.US_ASCII)).toFile();
+      files.add(file);
+      FingerprintIndex.getInstance().get(file);
+      ImageCache.getInstance().addImage(Thumbnail.fromImage(Scalr.resize(source, Scalr.Mode.AUTOMATIC,
+          ThumbnailPipeline.THUMBNAIL_SIZE, ThumbnailPipeline.THUMBNAIL_SIZE), 6000, 4000), file);
+    }
+    SourceRoots roots = new SourceRoots(Collections.singletonList(this.directory), true);
+    this.list = new JList<>(new PlaylistModel(roots, files));
+    this.renderer = new LabelListCellRenderer();
+    this.canvas = new BufferedImage(700, ThumbnailPipeline.THUMBNAIL_SIZE, BufferedImage.TYPE_INT_RGB);
+    this.graphics = this.canvas.createGraphics();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    this.graphics.dispose();
+    ImageCache.getInstance().clearCache();
+    try (Stream<Path> paths = Files.walk(this.directory)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Benchmark
+  public Component renderRow() {
+    int row = this.index++ % this.rows;
+    Component component = this.renderer.getListCellRendererComponent(this.list, this.list.getModel().getElementAt(row),
+        row, row == 0, false);
+    component.setBounds(0, 0, this.canvas.getWidth(), this.canvas.getHeight());
+    component.paint(this.graphics);
+    return component;
+  }
+}
@@ -0,0 +1,77 @@
+package net.jeremybrooks.iris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each scaling engine on its own, for the sizes Iris scales between: a 24 megapixel photo
+ * decoded whole, or subsampled as the Show and thumbnail paths decode it, scaled to a
+ * thumbnail or to fit a 1920x1080 or 3840x2160 display.
+ *
+ * The cost estimates in the engines, which {@link AdaptiveScalingEngine} chooses by, come from
+ * these results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true",
+    "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class ScalingBenchmark {
+  @Param({"scalr", "progressive", "box", "auto"})
+  public String engine;
+
+  @Param({"1", "2", "8"})
+  public int subsampling;
+
+  @Param({"100", "1920x1080", "3840x2160"})
+  public String target;
+
+  private ScalingEngine scalingEngine;
+  private BufferedImage image;
+  private int width;
+  private int height;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.scalingEngine = AdaptiveScalingEngine.forName(this.engine, AdaptiveScalingEngine.DEFAULT_BUDGET_MILLIS);
+    File file = Corpus.get(24, "jpg");
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      ImageReader reader = ImageIO.getImageReaders(in).next();
+      reader.setInput(in);
+      ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceSubsampling(this.subsampling, this.subsampling, 0, 0);
+      this.image = reader.read(0, param);
+      reader.dispose();
+    }
+    String[] size = this.target.split("x");
+    int targetWidth = Integer.parseInt(size[0]);
+    int targetHeight = size.length > 1 ? Integer.parseInt(size[1]) : targetWidth;
+    // fit, keeping the aspect ratio of the landscape corpus images
+    this.width = Math.min(targetWidth, targetHeight * this.image.getWidth() / this.image.getHeight());
+    this.height = Math.round(this.width * (float) this.image.getHeight() / this.image.getWidth());
+  }
+
+  @Benchmark
+  public BufferedImage scale() {
+    return this.scalingEngine.scale(this.image, this.width, this.height);
+  }
+}
@@ -0,0 +1,105 @@
+package net.jeremybrooks.iris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting a large directory listing.
+ *
+ * "camera" names all match the prefix_number.ext pattern the sort parses; "mixed" names include
+ * a share of names that do not, as found in folders that were renamed by hand or hold sidecar
+ * files.
+ *
+ * sort uses the comparator Iris used before {@link SortKey}, which parses both names on every
+ * comparison; sortKeys parses each name once first, as {@link DirectoryScanner} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class SortBenchmark {
+  @Param({"100000"})
+  public int entries;
+
+  @Param({"camera", "mixed"})
+  public String names;
+
+  private File[] files;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    this.files = new File[this.entries];
+    for (int i = 0; i < this.entries; i++) {
+      String name;
+      if ("mixed".equals(this.names) && random.nextInt(4) == 0) {
+        name = random.nextBoolean() ? "Scan " + random.nextInt(100000) + " final.jpg" : "DSC" + random.nextInt(100000) + ".xmp";
+      } else {
+        name = String.format("IMG_%05d.jpg", random.nextInt(100000));
+      }
+      this.files[i] = new File("/show", name);
+    }
+  }
+
+  @Benchmark
+  public File[] sort() {
+    File[] copy = Arrays.copyOf(this.files, this.files.length);
+    Arrays.sort(copy, new BaselineComparator());
+    return copy;
+  }
+
+  /*
+   * Parse each key once and sort the keys, as DirectoryScanner does.
+   */
+  @Benchmark
+  public SortKey[] sortKeys() {
+    SortKey[] keys = new SortKey[this.files.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = SortKey.of(this.files[i].getName());
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  /*
+   * The file name comparator as it was before SortKey, kept here as the reference.
+   */
+  private static class BaselineComparator implements Comparator<File> {
+    public int compare(File o1, File o2) {
+      int n1 = extractNumber(o1.getName());
+      int n2 = extractNumber(o2.getName());
+      return n1 - n2;
+    }
+
+    private int extractNumber(String name) {
+      int i;
+      try {
+        int s = name.indexOf('_') + 1;
+        int e = name.lastIndexOf('.');
+        String number = name.substring(s, e);
+        i = Integer.parseInt(number);
+      } catch (Exception e) {
+        i = 0; // if filename does not match the format
+        // then default to 0
+      }
+      return i;
+    }
+  }
+}
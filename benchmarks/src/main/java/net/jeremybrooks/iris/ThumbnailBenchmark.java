@@ -0,0 +1,64 @@
+package net.jeremybrooks.iris;
+
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to make one list thumbnail from a camera sized file, from file to scaled image.
+ *
+ * fullDecode is the original ImageProcessor path: ImageIO.read of the whole image, then Scalr.
+ * thumbnailDecoder is the path the thumbnail pipeline uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true",
+    "-Dlog4j.configurationFile=log4j2-benchmarks.xml"})
+public class ThumbnailBenchmark {
+  @Param({"12", "24", "45"})
+  public int megapixels;
+
+  @Param({"jpg", "png"})
+  public String format;
+
+  private File file;
+  private ThumbnailDecoder decoder;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.file = Corpus.get(this.megapixels, this.format);
+    this.decoder = new ThumbnailDecoder(ThumbnailPipeline.THUMBNAIL_SIZE);
+  }
+
+  @Benchmark
+  public BufferedImage fullDecode() throws Exception {
+    BufferedImage image = ImageIO.read(this.file);
+    return Scalr.resize(image, Scalr.Mode.AUTOMATIC, ThumbnailPipeline.THUMBNAIL_SIZE, ThumbnailPipeline.THUMBNAIL_SIZE);
+  }
+
+  @Benchmark
+  public BufferedImage thumbnailDecoder() throws Exception {
+    try (MappedFile mapped = MappedFile.map(this.file)) {
+      DecodedImage decoded = this.decoder.decode(this.file, mapped.buffer());
+      return Scalr.resize(decoded.getImage(), Scalr.Mode.AUTOMATIC,
+          ThumbnailPipeline.THUMBNAIL_SIZE, ThumbnailPipeline.THUMBNAIL_SIZE);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses a scaling engine for each image, from how much it is reduced and how long scaling
+ * may take.
+ *
+ * Engines are tried from the best quality for the scale to the worst, and the first one
+ * estimated to finish within the latency budget is used; if none of them is, the quickest is.
+ * {@link BoxScalingEngine} is the best for reductions to less than half, and
+ * {@link ProgressiveScalingEngine} for anything else, with imgscalr after them.
+ */
+class AdaptiveScalingEngine implements ScalingEngine {
+  static final String AUTOMATIC = "auto";
+  static final int DEFAULT_BUDGET_MILLIS = 250;
+  private static final ScalingEngine SCALR = new ScalrScalingEngine();
+  private static final ScalingEngine PROGRESSIVE = new ProgressiveScalingEngine();
+  private static final ScalingEngine BOX = new BoxScalingEngine();
+  private static final List<ScalingEngine> REDUCING = Arrays.asList(BOX, PROGRESSIVE, SCALR);
+  private static final List<ScalingEngine> OTHERWISE = Arrays.asList(PROGRESSIVE, SCALR);
+
+  private Logger logger = LogManager.getLogger();
+  private final long budgetNanos;
+
+  /**
+   * Create an engine that chooses within a latency budget.
+   *
+   * @param budgetMillis how long scaling one image should take.
+   */
+  AdaptiveScalingEngine(long budgetMillis) {
+    this.budgetNanos = budgetMillis * 1000000L;
+  }
+
+  /**
+   * Get an engine by name.
+   *
+   * @param name         "scalr", "progressive", "box", or "auto" for an adaptive engine.
+   * @param budgetMillis latency budget for an adaptive engine.
+   * @return the engine, or null if there is no engine of that name.
+   */
+  static ScalingEngine forName(String name, int budgetMillis) {
+    if (AUTOMATIC.equals(name)) {
+      return new AdaptiveScalingEngine(budgetMillis);
+    }
+    for (ScalingEngine engine : REDUCING) {
+      if (engine.toString().equals(name)) {
+        return engine;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public BufferedImage scale(BufferedImage image, int width, int height) {
+    ScalingEngine engine = choose(image.getWidth(), image.getHeight(), width, height);
+    if (logger.isDebugEnabled()) {
+      logger.debug(String.format("Scaling %dx%d to %dx%d with %s", image.getWidth(), image.getHeight(),
+          width, height, engine));
+    }
+    return engine.scale(image, width, height);
+  }
+
+  @Override
+  public long estimateNanos(int imageWidth, int imageHeight, int width, int height) {
+    return choose(imageWidth, imageHeight, width, height).estimateNanos(imageWidth, imageHeight, width, height);
+  }
+
+  @Override
+  public String toString() {
+    return AUTOMATIC + " (" + this.budgetNanos / 1000000 + " ms)";
+  }
+
+  /**
+   * Choose the engine for an image.
+   *
+   * @param imageWidth  width of the image.
+   * @param imageHeight height of the image.
+   * @param width       width of the scaled image.
+   * @param height      height of the scaled image.
+   * @return the engine.
+   */
+  ScalingEngine choose(int imageWidth, int imageHeight, int width, int height) {
+    ScalingEngine quickest = null;
+    long quickestNanos = Long.MAX_VALUE;
+    boolean reducing = BoxScalingEngine.isReduction(imageWidth, imageHeight, width, height);
+    for (ScalingEngine engine : reducing ? REDUCING : OTHERWISE) {
+      long nanos = engine.estimateNanos(imageWidth, imageHeight, width, height);
+      if (nanos <= this.budgetNanos) {
+        return engine;
+      }
+      if (nanos < quickestNanos) {
+        quickest = engine;
+        quickestNanos = nanos;
+      }
+    }
+    return quickest;
+  }
+}
@@ -0,0 +1,237 @@
+package net.jeremybrooks.iris;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Scales down by averaging, in one pass over the image, the block of pixels that falls on each
+ * pixel of the result. Block edges are rounded to whole pixels, which makes no visible difference
+ * once the image is reduced to less than half its size; smaller reductions and scaling up use
+ * bilinear interpolation instead.
+ *
+ * The image's pixels are read in place, so it takes little more memory than the result. Averaging
+ * does not alias however much the image is reduced, and the cost depends only on the size of the
+ * image, so this engine is best for large reductions.
+ */
+class BoxScalingEngine implements ScalingEngine {
+  // measured with ScalingBenchmark
+  private static final double NANOS_PER_SOURCE_PIXEL = 3.0;
+  private static final double NANOS_PER_SCALED_PIXEL = 10.0;
+
+  // a single bilinear step, for anything that is not a large reduction
+  private final ScalingEngine bilinear = new ProgressiveScalingEngine();
+
+  @Override
+  public BufferedImage scale(BufferedImage image, int width, int height) {
+    if (!isReduction(image.getWidth(), image.getHeight(), width, height)) {
+      return this.bilinear.scale(image, width, height);
+    }
+    BufferedImage source = image;
+    if (!isSupported(image.getType())) {
+      source = convert(image);
+    }
+    BufferedImage scaled = average(source, width, height);
+    if (source != image) {
+      source.flush();
+    }
+    return scaled;
+  }
+
+  @Override
+  public long estimateNanos(int imageWidth, int imageHeight, int width, int height) {
+    if (!isReduction(imageWidth, imageHeight, width, height)) {
+      return this.bilinear.estimateNanos(imageWidth, imageHeight, width, height);
+    }
+    return (long) (NANOS_PER_SOURCE_PIXEL * imageWidth * imageHeight + NANOS_PER_SCALED_PIXEL * width * height);
+  }
+
+  @Override
+  public String toString() {
+    return "box";
+  }
+
+  /**
+   * Whether an image is reduced to less than half its size, which is when averaging is used.
+   *
+   * @param imageWidth  width of the image.
+   * @param imageHeight height of the image.
+   * @param width       width of the scaled image.
+   * @param height      height of the scaled image.
+   * @return true if both sides are reduced to half or less.
+   */
+  static boolean isReduction(int imageWidth, int imageHeight, int width, int height) {
+    return imageWidth >= 2 * width && imageHeight >= 2 * height;
+  }
+
+  private static boolean isSupported(int type) {
+    return type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR
+        || type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+        || type == BufferedImage.TYPE_BYTE_GRAY;
+  }
+
+  private static BufferedImage convert(BufferedImage image) {
+    boolean alpha = image.getColorModel().hasAlpha();
+    BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = converted.createGraphics();
+    g.drawImage(image, 0, 0, null);
+    g.dispose();
+    return converted;
+  }
+
+  /*
+   * Sum the channels of each row of blocks as the source rows are read, then divide by the
+   * number of pixels in each block. The pixels are read straight from the raster's array.
+   */
+  private static BufferedImage average(BufferedImage image, int width, int height) {
+    boolean alpha = image.getColorModel().hasAlpha();
+    int imageWidth = image.getWidth();
+    int imageHeight = image.getHeight();
+    // source column where each block starts, and where the last one ends
+    int[] columns = new int[width + 1];
+    for (int x = 0; x <= width; x++) {
+      columns[x] = (int) ((long) x * imageWidth / width);
+    }
+    BufferedImage scaled = new BufferedImage(width, height,
+        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    WritableRaster out = scaled.getRaster();
+    RowSummer summer = image.getRaster().getDataBuffer() instanceof DataBufferInt
+        ? new IntRowSummer(image.getRaster(), columns) : new ByteRowSummer(image.getRaster(), columns);
+    // alpha, red, green and blue sums for each block in the row
+    int[] sums = new int[width * 4];
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      int top = (int) ((long) y * imageHeight / height);
+      int bottom = (int) ((long) (y + 1) * imageHeight / height);
+      Arrays.fill(sums, 0);
+      for (int sourceY = top; sourceY < bottom; sourceY++) {
+        summer.sum(sourceY, sums);
+      }
+      int rows = bottom - top;
+      for (int x = 0, s = 0; x < width; x++, s += 4) {
+        int area = rows * (columns[x + 1] - columns[x]);
+        int a = alpha ? sums[s] / area : 0xff;
+        row[x] = a << 24 | (sums[s + 1] / area) << 16 | (sums[s + 2] / area) << 8 | sums[s + 3] / area;
+      }
+      out.setDataElements(0, y, width, 1, row);
+    }
+    return scaled;
+  }
+
+  /*
+   * Adds the pixels of a source row to the sums of the blocks they fall in.
+   */
+  private abstract static class RowSummer {
+    final int[] columns;
+    final int scanlineStride;
+    final int offset;
+
+    RowSummer(Raster raster, int[] columns, int scanlineStride, int pixelStride) {
+      this.columns = columns;
+      this.scanlineStride = scanlineStride;
+      this.offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+          - raster.getSampleModelTranslateX() * pixelStride;
+    }
+
+    abstract void sum(int y, int[] sums);
+  }
+
+  private static class ByteRowSummer extends RowSummer {
+    private final byte[] data;
+    private final int pixelStride;
+    private final int red;
+    private final int green;
+    private final int blue;
+    private final int alpha;
+
+    ByteRowSummer(Raster raster, int[] columns) {
+      this(raster, (ComponentSampleModel) raster.getSampleModel(), columns);
+    }
+
+    private ByteRowSummer(Raster raster, ComponentSampleModel model, int[] columns) {
+      super(raster, columns, model.getScanlineStride(), model.getPixelStride());
+      this.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      this.pixelStride = model.getPixelStride();
+      // bands are in color model order: gray, or red, green, blue and maybe alpha
+      int[] bands = model.getBandOffsets();
+      this.red = bands[0];
+      this.green = bands.length > 1 ? bands[1] : bands[0];
+      this.blue = bands.length > 1 ? bands[2] : bands[0];
+      this.alpha = bands.length > 3 ? bands[3] : -1;
+    }
+
+    @Override
+    void sum(int y, int[] sums) {
+      byte[] data = this.data;
+      int[] columns = this.columns;
+      int stride = this.pixelStride;
+      int red = this.red;
+      int green = this.green;
+      int blue = this.blue;
+      int alpha = this.alpha;
+      int base = this.offset + y * this.scanlineStride;
+      for (int x = 0, s = 0; x < columns.length - 1; x++, s += 4) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int start = base + columns[x] * stride;
+        int end = base + columns[x + 1] * stride;
+        for (int i = start; i < end; i += stride) {
+          r += data[i + red] & 0xff;
+          g += data[i + green] & 0xff;
+          b += data[i + blue] & 0xff;
+        }
+        if (alpha >= 0) {
+          int a = 0;
+          for (int i = start; i < end; i += stride) {
+            a += data[i + alpha] & 0xff;
+          }
+          sums[s] += a;
+        }
+        sums[s + 1] += r;
+        sums[s + 2] += g;
+        sums[s + 3] += b;
+      }
+    }
+  }
+
+  private static class IntRowSummer extends RowSummer {
+    private final int[] data;
+
+    IntRowSummer(Raster raster, int[] columns) {
+      super(raster, columns, ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride(), 1);
+      this.data = ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    @Override
+    void sum(int y, int[] sums) {
+      int[] data = this.data;
+      int[] columns = this.columns;
+      int base = this.offset + y * this.scanlineStride;
+      for (int x = 0, s = 0; x < columns.length - 1; x++, s += 4) {
+        int a = 0;
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int i = base + columns[x], end = base + columns[x + 1]; i < end; i++) {
+          int p = data[i];
+          a += p >>> 24;
+          r += (p >> 16) & 0xff;
+          g += (p >> 8) & 0xff;
+          b += p & 0xff;
+        }
+        sums[s] += a;
+        sums[s + 1] += r;
+        sums[s + 2] += g;
+        sums[s + 3] += b;
+      }
+    }
+  }
+}
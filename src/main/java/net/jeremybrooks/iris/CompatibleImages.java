@@ -0,0 +1,78 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+
+/**
+ * Converts images to the pixel layout of a screen.
+ *
+ * Images from ImageIO are usually 3 byte BGR, which Java2D has to convert pixel by pixel every
+ * time it draws them. An image created by {@link GraphicsConfiguration#createCompatibleImage}
+ * has the layout of the screen, so drawing it is a plain copy, and Java2D keeps an accelerated
+ * copy of it in video memory once it has been drawn a few times. Images are converted once, when
+ * they are decoded or rendered, so repaints and window moves only copy pixels.
+ *
+ * Compatible images must not have their pixel arrays accessed directly, or Java2D stops
+ * accelerating them. When there is no screen, images are left as they are.
+ */
+class CompatibleImages {
+  private static Logger logger = LogManager.getLogger();
+
+  private CompatibleImages() {
+  }
+
+  /**
+   * Get an image in the pixel layout of the default screen.
+   *
+   * @param image the image.
+   * @return the image if it already has the layout of the screen or there is no screen,
+   * otherwise a converted copy.
+   */
+  static BufferedImage toCompatible(BufferedImage image) {
+    if (GraphicsEnvironment.isHeadless()) {
+      return image;
+    }
+    return toCompatible(image, GraphicsEnvironment.getLocalGraphicsEnvironment()
+        .getDefaultScreenDevice().getDefaultConfiguration());
+  }
+
+  /**
+   * Get an image in the pixel layout of a screen.
+   *
+   * @param image         the image.
+   * @param configuration the configuration of the screen the image will be drawn on.
+   * @return the image if it already has the layout of the screen, otherwise a converted copy.
+   */
+  static BufferedImage toCompatible(BufferedImage image, GraphicsConfiguration configuration) {
+    if (isCompatible(image, configuration)) {
+      return image;
+    }
+    long start = System.nanoTime();
+    BufferedImage compatible = configuration.createCompatibleImage(image.getWidth(), image.getHeight(),
+        image.getTransparency());
+    Graphics2D g = compatible.createGraphics();
+    g.drawImage(image, 0, 0, null);
+    g.dispose();
+    logger.debug(String.format("Converted %dx%d image of type %d to the screen layout in %d ms",
+        image.getWidth(), image.getHeight(), image.getType(), (System.nanoTime() - start) / 1000000));
+    return compatible;
+  }
+
+  /**
+   * Check whether an image has the pixel layout of a screen.
+   *
+   * @param image         the image.
+   * @param configuration the configuration of the screen.
+   * @return true if the image can be drawn on the screen without converting its pixels.
+   */
+  static boolean isCompatible(BufferedImage image, GraphicsConfiguration configuration) {
+    ColorModel screen = configuration.getColorModel(image.getTransparency());
+    return screen.equals(image.getColorModel()) && screen.isCompatibleSampleModel(image.getSampleModel());
+  }
+}
@@ -0,0 +1,38 @@
+package net.jeremybrooks.iris;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A decoded image along with the size of the original image it was decoded from.
+ * The decoded image may be smaller than the original if it was subsampled or if an
+ * embedded thumbnail was used.
+ */
+class DecodedImage {
+  private final BufferedImage image;
+  private final int originalWidth;
+  private final int originalHeight;
+
+  DecodedImage(BufferedImage image, int originalWidth, int originalHeight) {
+    this.image = image;
+    this.originalWidth = originalWidth;
+    this.originalHeight = originalHeight;
+  }
+
+  /**
+   * The decoded pixels.
+   * @return the decoded image.
+   */
+  BufferedImage getImage() {return this.image;}
+
+  /**
+   * The width of the original image.
+   * @return the original width.
+   */
+  int getOriginalWidth() {return this.originalWidth;}
+
+  /**
+   * The height of the original image.
+   * @return the original height.
+   */
+  int getOriginalHeight() {return this.originalHeight;}
+}
@@ -0,0 +1,263 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Lists the supported images in the source directories in playlist order.
+ *
+ * Each folder is listed by its own fork-join task, so the folders of a large tree are read in
+ * parallel, and the images in a folder are reported as soon as it has been read rather than at
+ * the end of the scan. Names are filtered as a folder is read, so other files are never sorted,
+ * and only entries that are not images are checked to see if they are subdirectories, which saves
+ * a round trip per image on network mounts. The {@link SortKey} for each image is parsed once
+ * before sorting.
+ *
+ * The folders are read by the source.scan.threads threads (default twice the number of
+ * processors); reading a directory blocks, so more threads than processors keep a slow mount busy.
+ */
+class DirectoryScanner {
+  private static Logger logger = LogManager.getLogger();
+
+  private DirectoryScanner() {
+  }
+
+  /**
+   * Receives the results of a scan, on the scanning threads.
+   */
+  interface Listener {
+    /**
+     * Called for each folder before it is read.
+     *
+     * @param folder the folder.
+     */
+    default void folderFound(Path folder) {
+    }
+
+    /**
+     * Called with the images in a folder once it has been read, if it has any.
+     *
+     * @param images the images, sorted.
+     */
+    void imagesFound(List<File> images);
+  }
+
+  private static class Holder {
+    private static final ForkJoinPool pool = createPool();
+  }
+
+  /**
+   * List the supported images in the source directories.
+   *
+   * @param roots the source directories.
+   * @return the images, in playlist order.
+   * @throws IOException if a root directory cannot be read.
+   */
+  static List<File> scan(SourceRoots roots) throws IOException {
+    return scan(roots, GenerationToken.NONE, folder -> {
+    });
+  }
+
+  /**
+   * List the supported images in the source directories, stopping if the token is cancelled.
+   *
+   * @param roots   the source directories.
+   * @param token   the load the directories are scanned for.
+   * @param folders called for each folder before it is read.
+   * @return the images, in playlist order.
+   * @throws IOException if a root directory cannot be read.
+   * @throws CancellationException if the token was cancelled.
+   */
+  static List<File> scan(SourceRoots roots, GenerationToken token, Consumer<Path> folders) throws IOException {
+    List<List<File>> groups = Collections.synchronizedList(new ArrayList<>());
+    stream(roots, token, new Listener() {
+      @Override
+      public void folderFound(Path folder) {
+        folders.accept(folder);
+      }
+
+      @Override
+      public void imagesFound(List<File> images) {
+        groups.add(images);
+      }
+    });
+    // every image in a group has the same folder, so the groups sort by their first image
+    List<Group> sorted = new ArrayList<>(groups.size());
+    int count = 0;
+    for (List<File> images : groups) {
+      sorted.add(new Group(roots.keyOf(images.get(0)), images));
+      count += images.size();
+    }
+    Collections.sort(sorted);
+    List<File> files = new ArrayList<>(count);
+    for (Group group : sorted) {
+      files.addAll(group.images);
+    }
+    return files;
+  }
+
+  /**
+   * Scan the source directories, reporting each folder's images as it is read.
+   *
+   * @param roots    the source directories.
+   * @param token    the load the directories are scanned for.
+   * @param listener receives the images in each folder.
+   * @throws IOException if a root directory cannot be read; the other roots are still scanned.
+   * @throws CancellationException if the token was cancelled.
+   */
+  static void stream(SourceRoots roots, GenerationToken token, Listener listener) throws IOException {
+    long start = System.currentTimeMillis();
+    Scan scan = new Scan(roots, token, listener);
+    List<FolderTask> tasks = new ArrayList<>();
+    for (Path root : roots.getRoots()) {
+      tasks.add(new FolderTask(scan, root, true));
+    }
+    Holder.pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+    token.throwIfCancelled();
+    logger.info(String.format("Found %d images in %d folders of %s in %d ms", scan.images.get(),
+        scan.folders.get(), roots, System.currentTimeMillis() - start));
+    if (scan.failure != null) {
+      throw scan.failure;
+    }
+  }
+
+  private static ForkJoinPool createPool() {
+    int threads = Math.max(1, Main.getIntProperty(Main.PROPERTY_SOURCE_SCAN_THREADS,
+        2 * Runtime.getRuntime().availableProcessors()));
+    return new ForkJoinPool(threads, pool -> {
+      ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      t.setName("iris-scan-" + t.getPoolIndex());
+      t.setDaemon(true);
+      return t;
+    }, null, false);
+  }
+
+  /*
+   * The state shared by the tasks of one scan.
+   */
+  private static class Scan {
+    private final SourceRoots roots;
+    private final GenerationToken token;
+    private final Listener listener;
+    private final AtomicInteger folders = new AtomicInteger();
+    private final AtomicInteger images = new AtomicInteger();
+    private volatile IOException failure;
+
+    Scan(SourceRoots roots, GenerationToken token, Listener listener) {
+      this.roots = roots;
+      this.token = token;
+      this.listener = listener;
+    }
+  }
+
+  /*
+   * Reads one folder, reports its images, and then reads its subfolders in parallel.
+   */
+  private static class FolderTask extends RecursiveAction {
+    private final Scan scan;
+    private final Path folder;
+    private final boolean root;
+
+    FolderTask(Scan scan, Path folder, boolean root) {
+      this.scan = scan;
+      this.folder = folder;
+      this.root = root;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.scan.token.isCancelled()) {
+        return;
+      }
+      this.scan.listener.folderFound(this.folder);
+      List<Entry> entries = new ArrayList<>();
+      List<FolderTask> subfolders = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.folder)) {
+        for (Path path : stream) {
+          if (this.scan.token.isCancelled()) {
+            return;
+          }
+          String name = path.getFileName().toString();
+          if (MainWindow.isSupportedImage(name)) {
+            entries.add(new Entry(path.toFile()));
+          } else if (this.scan.roots.isRecursive() && !name.startsWith(".")
+              && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+              && !this.scan.roots.getRoots().contains(path.toAbsolutePath().normalize())) {
+            // a nested root is scanned as a root of its own
+            subfolders.add(new FolderTask(this.scan, path, false));
+          }
+        }
+      } catch (IOException | UncheckedIOException e) {
+        if (this.root) {
+          logger.warn("Could not read source directory " + this.folder, e);
+          this.scan.failure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+        } else {
+          logger.warn("Could not read " + this.folder + "; skipping it.", e);
+        }
+      }
+      this.scan.folders.incrementAndGet();
+      if (!entries.isEmpty()) {
+        Collections.sort(entries);
+        List<File> files = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+          files.add(entry.file);
+        }
+        this.scan.images.addAndGet(files.size());
+        this.scan.listener.imagesFound(files);
+      }
+      invokeAll(subfolders);
+    }
+  }
+
+  private static class Group implements Comparable<Group> {
+    private final SourceRoots.Key key;
+    private final List<File> images;
+
+    Group(SourceRoots.Key key, List<File> images) {
+      this.key = key;
+      this.images = images;
+    }
+
+    @Override
+    public int compareTo(Group o) {
+      return this.key.compareTo(o.key);
+    }
+  }
+
+  private static class Entry implements Comparable<Entry> {
+    private final File file;
+    private final SortKey key;
+
+    Entry(File file) {
+      this.file = file;
+      this.key = SortKey.of(file.getName());
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      return this.key.compareTo(o.key);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches directories for files that are created, modified, or deleted.
+ *
+ * Each directory is registered with {@link #register(Path)}; subdirectories are not watched
+ * unless they are registered too. In recursive mode a directory created in a watched directory
+ * is registered as soon as it is seen, and the images already in it are reported as changed,
+ * since they may have been copied in before it was registered.
+ *
+ * Events are collected until the directories have been quiet for the debounce time, or until
+ * ten times the debounce time has passed since the first event, and then the listener gets
+ * one set of all the paths that changed. The listener should look at each path to see what
+ * happened to it; a file created and deleted within one batch is reported but no longer exists.
+ */
+class DirectoryWatcher {
+  private Logger logger = LogManager.getLogger();
+  private final boolean recursive;
+  private final long debounceMillis;
+  private final Consumer<Set<Path>> listener;
+  private final Runnable overflowListener;
+  private WatchService watchService;
+  private Thread thread;
+  private int count;
+
+  /**
+   * Create a new watcher. Call {@link #start()} to begin watching.
+   *
+   * @param recursive        true to watch directories created in the watched directories too.
+   * @param debounceMillis   how long the directories must be quiet before changes are reported.
+   * @param listener         called on the watcher thread with the changed paths.
+   * @param overflowListener called on the watcher thread if events were lost and the directories must be reloaded.
+   */
+  DirectoryWatcher(boolean recursive, long debounceMillis, Consumer<Set<Path>> listener, Runnable overflowListener) {
+    this.recursive = recursive;
+    this.debounceMillis = debounceMillis;
+    this.listener = listener;
+    this.overflowListener = overflowListener;
+  }
+
+  /**
+   * Start the watcher thread. Directories may be registered before or after it starts.
+   *
+   * @throws IOException if the file system cannot be watched.
+   */
+  synchronized void start() throws IOException {
+    if (this.watchService == null) {
+      this.watchService = FileSystems.getDefault().newWatchService();
+    }
+    this.thread = new Thread(this::watch, "iris-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Watch a directory. May be called from any thread, such as those scanning the directories.
+   *
+   * @param directory the directory.
+   * @throws IOException if the directory cannot be watched.
+   */
+  synchronized void register(Path directory) throws IOException {
+    if (this.watchService == null) {
+      if (this.thread != null) {
+        return; // stopped
+      }
+      this.watchService = FileSystems.getDefault().newWatchService();
+    }
+    directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    this.count++;
+    logger.debug("Watching " + directory);
+  }
+
+  /**
+   * Stop watching. Changes that have not been reported yet are discarded.
+   */
+  synchronized void stop() {
+    if (this.watchService != null) {
+      try {
+        this.watchService.close();
+      } catch (IOException e) {
+        logger.warn("Error closing watch service.", e);
+      }
+      this.watchService = null;
+      this.thread.interrupt();
+      logger.info("Stopped watching " + this.count + " directories.");
+    }
+  }
+
+  private void watch() {
+    WatchService service = this.watchService;
+    Set<Path> changed = new LinkedHashSet<>();
+    long firstEvent = 0;
+    long lastEvent = 0;
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key;
+        if (changed.isEmpty()) {
+          key = service.take();
+        } else {
+          long now = System.currentTimeMillis();
+          long wait = Math.min(lastEvent + this.debounceMillis, firstEvent + this.debounceMillis * 10) - now;
+          key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS) : null;
+        }
+        if (key == null) {
+          logger.info("Directories changed: " + changed.size() + " files.");
+          this.listener.accept(changed);
+          changed = new LinkedHashSet<>();
+          continue;
+        }
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            logger.warn("Lost directory events for " + directory + "; reloading.");
+            changed.clear();
+            this.overflowListener.run();
+          } else {
+            if (changed.isEmpty()) {
+              firstEvent = System.currentTimeMillis();
+            }
+            Path path = directory.resolve((Path) event.context());
+            changed.add(path);
+            if (this.recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+              watchNewDirectory(path, changed);
+            }
+            lastEvent = System.currentTimeMillis();
+          }
+        }
+        if (!key.reset()) {
+          // deleted or unmounted; its files are reported by the event for the directory itself
+          logger.info(directory + " can no longer be watched.");
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // stopped
+    }
+  }
+
+  /*
+   * Watch a directory created in a watched directory, and everything below it, and add the
+   * images already in it to the changes.
+   */
+  private void watchNewDirectory(Path path, Set<Path> changed) {
+    if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) || path.getFileName().toString().startsWith(".")) {
+      return;
+    }
+    try {
+      SourceRoots folder = new SourceRoots(Collections.singletonList(path), true);
+      for (File file : DirectoryScanner.scan(folder, GenerationToken.NONE, directory -> {
+        try {
+          register(directory);
+        } catch (IOException e) {
+          logger.warn("Could not watch " + directory, e);
+        }
+      })) {
+        changed.add(file.toPath());
+      }
+    } catch (IOException e) {
+      logger.warn("Could not read new directory " + path, e);
+    }
+  }
+}
@@ -0,0 +1,555 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent image cache stored in two files in a directory.
+ *
+ * The data file (name.generation.dat) holds encoded images, appended one after another, each
+ * preceded by the fingerprint it was stored under. The index file (name.idx) names the
+ * generation of the data file and maps the {@link Fingerprint} of each source file's content to
+ * the original image dimensions and the location of the encoded image in the data file. The index
+ * is read completely when the cache is loaded; images are read from the data file only when
+ * requested, and an image whose stored fingerprint does not match is dropped rather than returned.
+ *
+ * Because entries are keyed by content, copies of an image under other names or in other
+ * folders share one entry, and a file that changes gets a new fingerprint and so is created
+ * again. Fingerprints are looked up in the {@link FingerprintIndex}, so checking for an entry
+ * only reads the source file the first time it is seen. When the cache is saved, entries whose
+ * fingerprint no file in the index has any more are dropped, so the files of deleted and edited
+ * images do not keep their entries forever. Only entries the index is known to have had a file
+ * for are dropped this way, so a fingerprint index that is missing or cannot be read does not
+ * empty the cache; see {@link FingerprintIndex#getEpoch()}.
+ *
+ * Compaction copies the live entries to a data file of the next generation, and the old data
+ * file is deleted only after an index that names the new one has replaced the old index, so
+ * the index and the data file it names always match.
+ *
+ * A cache opened read only, because another process is writing the cache files (see
+ * {@link Main}), never writes, drops or deletes anything; images it does not have are not stored.
+ *
+ * The same format holds list thumbnails and display renders; renders are kept in a separate
+ * cache for each display size. Thumbnails are stored in the encoding they already have in memory,
+ * so the format name only applies to images stored with {@link #putImage}.
+ */
+class DiskCache {
+  private static final int MAGIC = 0x49524953; // "IRIS"
+  private static final int VERSION = 3;
+  private static final float JPEG_QUALITY = 0.92f;
+  // the fingerprint stored before each image
+  private static final int RECORD_HEADER_BYTES = 16;
+
+  private Logger logger = LogManager.getLogger();
+  private final File directory;
+  private final String name;
+  private final File indexFile;
+  private final String formatName;
+  private final boolean readOnly;
+  private final Map<Fingerprint, Entry> entries = new HashMap<>();
+  private FileChannel channel;
+  private long generation;
+  private long epoch;
+  private long appendPosition;
+  private long deadBytes;
+  private boolean dirty;
+
+  /**
+   * Create a new disk cache. Call {@link #load()} before using it.
+   *
+   * @param directory  directory to store the cache files in.
+   * @param name       base name of the cache files.
+   * @param formatName ImageIO format name used to encode images.
+   * @param readOnly   true to only read the cache files, because another process may write them.
+   */
+  DiskCache(File directory, String name, String formatName, boolean readOnly) {
+    this.directory = directory;
+    this.name = name;
+    this.indexFile = new File(directory, name + ".idx");
+    this.formatName = formatName;
+    this.readOnly = readOnly;
+  }
+
+  /**
+   * Read the index and open the data file it names. Data files of other generations, left by
+   * a compaction that was interrupted, are deleted unless the cache is read only.
+   * If the index cannot be read, the cache starts out empty.
+   */
+  synchronized void load() {
+    this.entries.clear();
+    this.generation = 0;
+    this.epoch = FingerprintIndex.getInstance().getEpoch();
+    long start = System.currentTimeMillis();
+    try {
+      if (this.indexFile.exists()) {
+        readIndex();
+      }
+      this.channel = openDataFile();
+      long dataSize = this.channel == null ? 0 : this.channel.size();
+      long liveBytes = 0;
+      Iterator<Entry> iterator = this.entries.values().iterator();
+      while (iterator.hasNext()) {
+        Entry entry = iterator.next();
+        // entries pointing past the end of the data file were never completely written
+        if (entry.offset + RECORD_HEADER_BYTES + entry.length > dataSize) {
+          iterator.remove();
+        } else {
+          liveBytes += RECORD_HEADER_BYTES + entry.length;
+        }
+      }
+      this.appendPosition = dataSize;
+      this.deadBytes = dataSize - liveBytes;
+      logger.info(String.format("Loaded %d entries from %s in %d ms",
+          this.entries.size(), this.indexFile.getAbsolutePath(), System.currentTimeMillis() - start));
+    } catch (Exception e) {
+      logger.warn("Could not load disk cache " + this.indexFile.getAbsolutePath() + "; starting empty.", e);
+      this.entries.clear();
+      this.appendPosition = 0;
+      this.deadBytes = 0;
+      if (!this.readOnly) {
+        try {
+          if (this.channel == null) {
+            this.channel = openDataFile();
+          }
+          this.channel.truncate(0);
+        } catch (IOException ioe) {
+          logger.warn("Could not open " + dataFile(this.generation).getAbsolutePath(), ioe);
+        }
+      }
+    }
+    if (!this.readOnly) {
+      deleteOtherGenerations();
+    }
+  }
+
+  /*
+   * Open the data file the index names, creating it unless the cache is read only.
+   * Returns null if the cache is read only and there is no data file.
+   */
+  private FileChannel openDataFile() throws IOException {
+    File file = dataFile(this.generation);
+    if (!this.readOnly) {
+      return FileChannel.open(file.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    return file.exists() ? FileChannel.open(file.toPath(), StandardOpenOption.READ) : null;
+  }
+
+  private void readIndex() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unrecognized index format.");
+      }
+      this.generation = in.readLong();
+      // entries saved against another fingerprint index may not be in this one yet
+      boolean sameEpoch = in.readLong() == this.epoch;
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Fingerprint fingerprint = new Fingerprint(in.readLong(), in.readLong());
+        Entry entry = new Entry(in.readInt(), in.readInt(), in.readLong(), in.readInt());
+        entry.covered = in.readBoolean() && sameEpoch;
+        this.entries.put(fingerprint, entry);
+      }
+    }
+  }
+
+  private File dataFile(long generation) {
+    return new File(this.directory, this.name + "." + generation + ".dat");
+  }
+
+  /*
+   * Delete data files that the index does not name, including the single data file of earlier versions.
+   */
+  private void deleteOtherGenerations() {
+    Pattern pattern = Pattern.compile(Pattern.quote(this.name) + "(\\.\\d+)?\\.dat");
+    File[] files = this.directory.listFiles((dir, fileName) -> pattern.matcher(fileName).matches());
+    if (files == null) {
+      return;
+    }
+    File current = dataFile(this.generation);
+    for (File file : files) {
+      if (!file.equals(current) && !file.delete()) {
+        logger.warn("Could not delete old cache file " + file.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * Check for an entry for a file's content without reading the file. A file that has not been
+   * fingerprinted since it last changed is not found, even if a copy of it has an entry.
+   *
+   * @param file the source image file.
+   * @return true if the file's fingerprint is known and there is an entry for it.
+   */
+  boolean contains(File file) {
+    Fingerprint fingerprint = FingerprintIndex.getInstance().getIfKnown(file);
+    synchronized (this) {
+      return fingerprint != null && this.entries.containsKey(fingerprint);
+    }
+  }
+
+  /**
+   * Get the original dimensions of the image cached for some content, without reading the image.
+   *
+   * @param fingerprint the fingerprint of the source image file.
+   * @return the dimensions, or null if there is no entry for it.
+   */
+  synchronized Dimension getOriginalSize(Fingerprint fingerprint) {
+    Entry entry = this.entries.get(fingerprint);
+    return entry == null ? null : new Dimension(entry.width, entry.height);
+  }
+
+  /**
+   * Get the cached thumbnail for a file. The thumbnail holds the stored bytes as they are,
+   * without decoding them. The file is fingerprinted if it is new or has changed.
+   *
+   * @param file the source image file.
+   * @return the thumbnail, or null if there is no entry for the file's content.
+   */
+  Thumbnail get(File file) {
+    Stored stored = read(file);
+    if (stored == null) {
+      return null;
+    }
+    try {
+      return Thumbnail.fromBytes(stored.bytes, stored.originalWidth, stored.originalHeight);
+    } catch (IOException e) {
+      logger.warn("Could not read cached thumbnail for " + file.getAbsolutePath(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Get the cached image for a file. The file is fingerprinted if it is new or has changed.
+   *
+   * @param file the source image file.
+   * @return the image, or null if there is no entry for the file's content.
+   */
+  BufferedImage getImage(File file) {
+    Stored stored = read(file);
+    if (stored == null) {
+      return null;
+    }
+    try {
+      return ImageIO.read(new ByteArrayInputStream(stored.bytes));
+    } catch (IOException e) {
+      logger.warn("Could not decode cached image for " + file.getAbsolutePath(), e);
+      return null;
+    }
+  }
+
+  private Stored read(File file) {
+    Fingerprint fingerprint = fingerprint(file);
+    if (fingerprint == null) {
+      return null;
+    }
+    synchronized (this) {
+      Entry entry = this.entries.get(fingerprint);
+      return entry == null ? null : read(file, fingerprint, entry);
+    }
+  }
+
+  /*
+   * Read an entry's record, and drop the entry if the record was stored under another fingerprint.
+   */
+  private Stored read(File file, Fingerprint fingerprint, Entry entry) {
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + entry.length);
+      long position = entry.offset;
+      while (buffer.hasRemaining()) {
+        int read = this.channel.read(buffer, position);
+        if (read < 0) {
+          throw new IOException("Unexpected end of file.");
+        }
+        position += read;
+      }
+      if (buffer.getLong(0) != fingerprint.getHigh() || buffer.getLong(8) != fingerprint.getLow()) {
+        logger.warn("Cached image for " + file.getAbsolutePath() + " does not match its index entry; dropping it.");
+        this.entries.remove(fingerprint);
+        this.deadBytes += RECORD_HEADER_BYTES + entry.length;
+        this.dirty = true;
+        return null;
+      }
+      byte[] bytes = new byte[entry.length];
+      buffer.position(RECORD_HEADER_BYTES);
+      buffer.get(bytes);
+      return new Stored(bytes, entry.width, entry.height);
+    } catch (IOException e) {
+      logger.warn("Could not read cached image for " + file.getAbsolutePath(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Store the thumbnail for a file, replacing any existing entry for its content.
+   * The thumbnail is already encoded, so its bytes are stored as they are.
+   *
+   * @param file      the source image file.
+   * @param thumbnail the thumbnail to store.
+   */
+  void put(File file, Thumbnail thumbnail) {
+    write(file, thumbnail.getBytes(), thumbnail.getOriginalWidth(), thumbnail.getOriginalHeight());
+  }
+
+  /**
+   * Store an image for a file, replacing any existing entry for its content.
+   *
+   * @param file           the source image file.
+   * @param image          the image to store.
+   * @param originalWidth  width of the source image.
+   * @param originalHeight height of the source image.
+   */
+  void putImage(File file, BufferedImage image, int originalWidth, int originalHeight) {
+    byte[] bytes;
+    try {
+      // renders are written at high quality because they are shown full screen
+      bytes = ImageEncoder.encode(image, this.formatName, JPEG_QUALITY);
+      if (bytes == null) {
+        logger.warn("No image writer for format " + this.formatName);
+        return;
+      }
+    } catch (IOException e) {
+      logger.warn("Could not encode image for " + file.getAbsolutePath(), e);
+      return;
+    }
+    write(file, bytes, originalWidth, originalHeight);
+  }
+
+  private void write(File file, byte[] bytes, int originalWidth, int originalHeight) {
+    if (this.readOnly) {
+      return;
+    }
+    Fingerprint fingerprint = fingerprint(file);
+    if (fingerprint == null) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + bytes.length);
+    buffer.putLong(fingerprint.getHigh()).putLong(fingerprint.getLow()).put(bytes).flip();
+    synchronized (this) {
+      try {
+        long position = this.appendPosition;
+        while (buffer.hasRemaining()) {
+          position += this.channel.write(buffer, position);
+        }
+        Entry entry = new Entry(originalWidth, originalHeight, this.appendPosition, bytes.length);
+        entry.covered = true;
+        Entry old = this.entries.put(fingerprint, entry);
+        if (old != null) {
+          this.deadBytes += RECORD_HEADER_BYTES + old.length;
+        }
+        this.appendPosition = position;
+        this.dirty = true;
+      } catch (IOException e) {
+        logger.warn("Could not write cached image for " + file.getAbsolutePath(), e);
+      }
+    }
+  }
+
+  /**
+   * Drop entries that no file has any more, and write the index to disk if anything has changed.
+   * If more than half of the data file is taken up by dropped or replaced entries, it is
+   * compacted instead. Does nothing if the cache is read only.
+   */
+  synchronized void save() {
+    if (this.readOnly || this.channel == null) {
+      return;
+    }
+    dropUnreferenced();
+    if (!this.dirty) {
+      return;
+    }
+    try {
+      if (this.deadBytes > this.appendPosition / 2) {
+        compact();
+      } else {
+        this.channel.force(false);
+        writeIndex(this.entries, this.generation);
+      }
+      this.dirty = false;
+      logger.info("Saved " + this.entries.size() + " entries to " + this.indexFile.getAbsolutePath());
+    } catch (IOException e) {
+      logger.error("Error saving disk cache " + this.indexFile.getAbsolutePath(), e);
+    }
+  }
+
+  /*
+   * Write an index, replacing the index file only once it is completely written.
+   */
+  private void writeIndex(Map<Fingerprint, Entry> entries, long generation) throws IOException {
+    File tmp = new File(this.indexFile.getParentFile(), this.indexFile.getName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(generation);
+      out.writeLong(this.epoch);
+      out.writeInt(entries.size());
+      for (Map.Entry<Fingerprint, Entry> e : entries.entrySet()) {
+        Entry entry = e.getValue();
+        out.writeLong(e.getKey().getHigh());
+        out.writeLong(e.getKey().getLow());
+        out.writeInt(entry.width);
+        out.writeInt(entry.height);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.length);
+        out.writeBoolean(entry.covered);
+      }
+    }
+    Files.move(tmp.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /*
+   * Drop the entries for content that the fingerprint index had a file for and has not any more:
+   * files that were deleted, or changed and fingerprinted again. Entries for content the index has
+   * not had a file for since it got its epoch are kept, as the index may not have seen their files
+   * yet. The bytes of dropped entries are dead until the data file is compacted.
+   */
+  private void dropUnreferenced() {
+    FingerprintIndex index = FingerprintIndex.getInstance();
+    long indexEpoch = index.getEpoch();
+    if (indexEpoch != this.epoch) {
+      // the index was loaded again and started over
+      this.entries.values().forEach(entry -> entry.covered = false);
+      this.epoch = indexEpoch;
+      this.dirty = true;
+    }
+    Set<Fingerprint> live = index.getFingerprints();
+    int dropped = 0;
+    Iterator<Map.Entry<Fingerprint, Entry>> iterator = this.entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Fingerprint, Entry> e = iterator.next();
+      Entry entry = e.getValue();
+      if (live.contains(e.getKey())) {
+        if (!entry.covered) {
+          entry.covered = true;
+          this.dirty = true;
+        }
+      } else if (entry.covered) {
+        this.deadBytes += RECORD_HEADER_BYTES + entry.length;
+        iterator.remove();
+        dropped++;
+      }
+    }
+    if (dropped > 0) {
+      this.dirty = true;
+      logger.info("Dropped " + dropped + " entries for deleted or changed files from " +
+          this.indexFile.getAbsolutePath());
+    }
+  }
+
+  /*
+   * Copy the live entries to a data file of the next generation and write an index that names
+   * it, then switch to it and delete the old data file. Until the new index is in place the old
+   * index and data file are untouched, and if anything fails before then the cache carries on
+   * with them.
+   */
+  private void compact() throws IOException {
+    long next = this.generation + 1;
+    File file = dataFile(next);
+    Map<Fingerprint, Entry> compacted = new HashMap<>();
+    FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long position = 0;
+    try {
+      for (Map.Entry<Fingerprint, Entry> e : this.entries.entrySet()) {
+        Entry entry = e.getValue();
+        long size = RECORD_HEADER_BYTES + entry.length;
+        long copied = 0;
+        while (copied < size) {
+          long count = this.channel.transferTo(entry.offset + copied, size - copied, out);
+          if (count <= 0) {
+            throw new IOException("Unexpected end of file.");
+          }
+          copied += count;
+        }
+        Entry copy = new Entry(entry.width, entry.height, position, entry.length);
+        copy.covered = entry.covered;
+        compacted.put(e.getKey(), copy);
+        position += size;
+      }
+      out.force(false);
+      writeIndex(compacted, next);
+    } catch (IOException | RuntimeException e) {
+      out.close();
+      if (!file.delete()) {
+        logger.warn("Could not delete " + file.getAbsolutePath());
+      }
+      throw e;
+    }
+    File old = dataFile(this.generation);
+    this.channel.close();
+    this.channel = out;
+    this.generation = next;
+    this.entries.clear();
+    this.entries.putAll(compacted);
+    logger.info(String.format("Compacted %s from %d to %d bytes",
+        file.getAbsolutePath(), this.appendPosition, position));
+    this.appendPosition = position;
+    this.deadBytes = 0;
+    if (!old.delete()) {
+      logger.warn("Could not delete old cache file " + old.getAbsolutePath());
+    }
+  }
+
+  /*
+   * Get the fingerprint of a source file, or null if it cannot be read.
+   */
+  private Fingerprint fingerprint(File file) {
+    try {
+      return FingerprintIndex.getInstance().get(file);
+    } catch (IOException e) {
+      logger.warn("Could not fingerprint " + file.getAbsolutePath(), e);
+      return null;
+    }
+  }
+
+  private static class Entry {
+    private final int width;
+    private final int height;
+    private final long offset;
+    private final int length;
+    // whether the fingerprint index has had a file with this content during its epoch
+    private boolean covered;
+
+    Entry(int width, int height, long offset, int length) {
+      this.width = width;
+      this.height = height;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class Stored {
+    private final byte[] bytes;
+    private final int originalWidth;
+    private final int originalHeight;
+
+    Stored(byte[] bytes, int originalWidth, int originalHeight) {
+      this.bytes = bytes;
+      this.originalWidth = originalWidth;
+      this.originalHeight = originalHeight;
+    }
+  }
+}
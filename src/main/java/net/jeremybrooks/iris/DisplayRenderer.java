@@ -0,0 +1,354 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.imgscalr.Scalr;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decodes an image and scales it to fit a display.
+ *
+ * Images are decoded at the lowest resolution that still gives a full quality render: source
+ * subsampling keeps at least twice the display resolution, so peak memory depends on the size of
+ * the display rather than the size of the image. If that would be larger than the
+ * display.decode.megabytes property allows (default 256), the image is subsampled further, down
+ * to the display resolution; tiled images that are still too large are decoded one band of tiles
+ * at a time, reusing the band buffer, and each band is scaled into the result.
+ */
+class DisplayRenderer {
+  private static Logger logger = LogManager.getLogger();
+
+  private DisplayRenderer() {
+  }
+
+  /**
+   * Read an image file and scale it to the largest size that fits in the bounds
+   * without changing its aspect ratio.
+   * A render saved by {@link Prewarm} for a display of this size is used if there is one.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the target display.
+   * @return the scaled image.
+   * @throws IOException if the image cannot be read.
+   */
+  static BufferedImage render(File file, Rectangle gcBounds) throws IOException {
+    long start = System.nanoTime();
+    BufferedImage cached = getPrewarmed(file, gcBounds);
+    if (cached != null) {
+      Metrics.getInstance().recordRender(start);
+      return cached;
+    }
+    DecodedImage decoded = decodeForDisplay(file, Collections.singletonList(gcBounds));
+    BufferedImage resized = scaleToFit(decoded, gcBounds);
+    decoded.getImage().flush();
+    Metrics.getInstance().recordRender(start);
+    return resized;
+  }
+
+  /**
+   * Get the render saved by {@link Prewarm} for a display of this size.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the target display.
+   * @return the render, or null if there is none.
+   */
+  static BufferedImage getPrewarmed(File file, Rectangle gcBounds) {
+    DiskCache diskCache = Main.getRenderCache(gcBounds.width, gcBounds.height, false);
+    return diskCache == null ? null : diskCache.getImage(file);
+  }
+
+  /**
+   * Decode a whole image file, reading it through a {@link MappedFile}.
+   *
+   * @param file the image file.
+   * @return the image.
+   * @throws IOException if the image cannot be read.
+   */
+  static BufferedImage decode(File file) throws IOException {
+    try (MappedFile mapped = MappedFile.map(file);
+         ImageInputStream in = new MappedImageInputStream(mapped.buffer())) {
+      BufferedImage image = ImageIO.read(in);
+      if (image == null) {
+        throw new IOException("No image reader for " + file.getAbsolutePath());
+      }
+      return image;
+    }
+  }
+
+  /**
+   * Decode an image file at the lowest resolution that renders at full quality on all of the
+   * displays: at least twice the size the image is shown at on the largest of them, or the
+   * whole image if it is smaller than that.
+   *
+   * @param file     the image file.
+   * @param displays bounds of the displays the image will be shown on.
+   * @return the decoded image, with the size of the original.
+   * @throws IOException if the image cannot be read.
+   */
+  static DecodedImage decodeForDisplay(File file, List<Rectangle> displays) throws IOException {
+    long start = System.nanoTime();
+    try (MappedFile mapped = MappedFile.map(file);
+         ImageInputStream in = new MappedImageInputStream(mapped.buffer())) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("No image reader for " + file.getAbsolutePath());
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int fitWidth = 1;
+        int fitHeight = 1;
+        for (Rectangle display : displays) {
+          Fit fit = new Fit(width, height, display);
+          fitWidth = Math.max(fitWidth, fit.width);
+          fitHeight = Math.max(fitHeight, fit.height);
+        }
+        // keep twice the display resolution if the memory allows, and never less than the display resolution
+        int subsampling = Math.max(1, Math.min(width / (2 * fitWidth), height / (2 * fitHeight)));
+        int maxSubsampling = Math.max(1, Math.min(width / fitWidth, height / fitHeight));
+        long maxBytes = Main.getIntProperty(Main.PROPERTY_DISPLAY_DECODE_MEGABYTES, 256) * 1024L * 1024L;
+        while (subsampling < maxSubsampling && decodedBytes(width, height, subsampling) > maxBytes) {
+          subsampling++;
+        }
+        int decodedWidth = (width + subsampling - 1) / subsampling;
+        int decodedHeight = (height + subsampling - 1) / subsampling;
+        BufferedImage image;
+        String mode;
+        // readers of untiled images decode from the top for every region, so bands are only used for tiled images
+        if (decodedBytes(width, height, subsampling) <= maxBytes || !reader.isImageTiled(0)) {
+          ImageReadParam param = reader.getDefaultReadParam();
+          param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+          image = reader.read(0, param);
+          mode = "subsampled 1/" + subsampling;
+        } else {
+          int scale = 4L * (2 * fitWidth) * (2 * fitHeight) <= maxBytes ? 2 : 1;
+          int outWidth = Math.min(decodedWidth, scale * fitWidth);
+          int outHeight = Math.min(decodedHeight, scale * fitHeight);
+          image = createImage(reader, outWidth, outHeight);
+          int bands = decodeInBands(reader, width, height, subsampling, maxBytes / 4, image);
+          mode = "subsampled 1/" + subsampling + " in " + bands + " bands";
+        }
+        logger.info(String.format("Decoded %s (%dx%d) to %dx%d %s in %d ms; %d KB of pixels instead of %d KB.",
+            file.getName(), width, height, image.getWidth(), image.getHeight(), mode,
+            (System.nanoTime() - start) / 1000000,
+            4L * image.getWidth() * image.getHeight() / 1024, 4L * width * height / 1024));
+        return new DecodedImage(image, width, height);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private static long decodedBytes(int width, int height, int subsampling) {
+    return 4L * ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+  }
+
+  /*
+   * Decode the image a band of rows at a time into one reused band buffer, and scale each band
+   * into its place in the result. Band boundaries are aligned to the tiles.
+   */
+  private static int decodeInBands(ImageReader reader, int width, int height, int subsampling, long maxBandBytes,
+                                   BufferedImage result) throws IOException {
+    int decodedWidth = (width + subsampling - 1) / subsampling;
+    int bandRows = (int) Math.max(1, Math.min(height, maxBandBytes / (4L * decodedWidth))) * subsampling;
+    int tileHeight = reader.getTileHeight(0);
+    bandRows = Math.max(tileHeight, bandRows / tileHeight * tileHeight);
+    ImageReadParam param = reader.getDefaultReadParam();
+    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+    Graphics2D g = result.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    BufferedImage band = null;
+    int bands = 0;
+    try {
+      for (int y = 0; y < height; y += bandRows) {
+        int rows = Math.min(bandRows, height - y);
+        int bandHeight = (rows + subsampling - 1) / subsampling;
+        if (band == null || band.getHeight() != bandHeight) {
+          band = reader.getImageTypes(0).next().createBufferedImage(decodedWidth, bandHeight);
+        }
+        param.setSourceRegion(new Rectangle(0, y, width, rows));
+        param.setDestination(band);
+        reader.read(0, param);
+        int top = (int) ((long) y * result.getHeight() / height);
+        int bottom = (int) ((long) (y + rows) * result.getHeight() / height);
+        g.drawImage(band, 0, top, result.getWidth(), bottom, 0, 0, band.getWidth(), band.getHeight(), null);
+        bands++;
+      }
+    } finally {
+      g.dispose();
+    }
+    return bands;
+  }
+
+  private static BufferedImage createImage(ImageReader reader, int width, int height) throws IOException {
+    boolean alpha = reader.getImageTypes(0).next().getColorModel().hasAlpha();
+    return new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+  }
+
+  /**
+   * Scale a decoded image to the size that {@link #render(File, Rectangle)} makes for the
+   * original image, even if the decoded image was subsampled.
+   *
+   * @param decoded  the decoded image.
+   * @param gcBounds bounds of the target display.
+   * @return the scaled image.
+   */
+  static BufferedImage scaleToFit(DecodedImage decoded, Rectangle gcBounds) {
+    Fit fit = new Fit(decoded.getOriginalWidth(), decoded.getOriginalHeight(), gcBounds);
+    BufferedImage resized = Main.getScalingEngine().scale(decoded.getImage(), fit.width, fit.height);
+    logger.info(String.format("New size is %d x %d",
+        resized.getWidth(), resized.getHeight()));
+    return resized;
+  }
+
+  /**
+   * Scale a decoded image to the largest size that fits in the bounds without changing its aspect ratio.
+   *
+   * @param img      the full size image.
+   * @param gcBounds bounds of the target display.
+   * @return the scaled image.
+   */
+  static BufferedImage scaleToFit(BufferedImage img, Rectangle gcBounds) {
+    Fit fit = new Fit(img.getWidth(), img.getHeight(), gcBounds);
+    BufferedImage resized = Main.getScalingEngine().scale(img, fit.width, fit.height);
+    logger.info(String.format("New size is %d x %d",
+        resized.getWidth(), resized.getHeight()));
+    return resized;
+  }
+
+  /**
+   * Quickly make a low quality version of the image that is the same size as {@link #render(File, Rectangle)}
+   * would make. The image is decoded with source subsampling to about half the display resolution, then
+   * stretched with bilinear interpolation.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the target display.
+   * @return the preview image.
+   * @throws IOException if the image cannot be read.
+   */
+  static BufferedImage renderPreview(File file, Rectangle gcBounds) throws IOException {
+    long start = System.nanoTime();
+    try (MappedFile mapped = MappedFile.map(file);
+         ImageInputStream in = new MappedImageInputStream(mapped.buffer())) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("No image reader for " + file.getAbsolutePath());
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        Fit fit = new Fit(width, height, gcBounds);
+        int subsampling = Math.max(1, 2 * Math.min(width / fit.width, height / fit.height));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        BufferedImage decoded = reader.read(0, param);
+        BufferedImage preview = stretch(decoded, fit);
+        decoded.flush();
+        logger.info(String.format("Preview of %s at 1/%d subsampling in %d ms",
+            file.getName(), subsampling, (System.nanoTime() - start) / 1000000));
+        return preview;
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Make a low quality version of an image from a smaller copy of it, such as its thumbnail,
+   * by stretching it to the size {@link #render(File, Rectangle)} would make.
+   *
+   * @param small          the smaller copy of the image.
+   * @param originalWidth  width of the original image.
+   * @param originalHeight height of the original image.
+   * @param gcBounds       bounds of the target display.
+   * @return the preview image.
+   */
+  static BufferedImage renderPreview(Image small, int originalWidth, int originalHeight, Rectangle gcBounds) {
+    return stretch(small, new Fit(originalWidth, originalHeight, gcBounds));
+  }
+
+  private static BufferedImage stretch(Image image, Fit fit) {
+    BufferedImage preview = new BufferedImage(fit.width, fit.height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = preview.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(image, 0, 0, fit.width, fit.height, null);
+    g.dispose();
+    return preview;
+  }
+
+  /*
+   * Works out how to scale an image to fit the display, and the resulting size.
+   */
+  private static class Fit {
+    private Scalr.Mode mode;
+    private int size;
+    private int width;
+    private int height;
+
+    Fit(int imageWidth, int imageHeight, Rectangle gcBounds) {
+      logger.info(String.format("Target display size is %d x %d",
+          gcBounds.width, gcBounds.height));
+      logger.info(String.format("Image size is %d x %d",
+          imageWidth, imageHeight));
+
+      if (imageWidth > imageHeight) {
+        // landscape
+        size = gcBounds.width;
+        mode = Scalr.Mode.FIT_TO_WIDTH;
+        // calculate final image height
+        int finalHeight = (int)(imageHeight * ((float)gcBounds.width / imageWidth));
+        logger.info(String.format("Landscape: Resize to WIDTH %d would produce image %dx%d",
+            size, size, finalHeight));
+        if (finalHeight > gcBounds.height) {
+          logger.info("Too tall; will size to height instead.");
+          size = gcBounds.height;
+          mode = Scalr.Mode.FIT_TO_HEIGHT;
+        }
+      } else {
+        // portrait
+        size = gcBounds.height;
+        mode = Scalr.Mode.FIT_TO_HEIGHT;
+        // calculate final image width
+        int finalWidth = (int)(imageWidth * ((float)gcBounds.height / imageHeight));
+        logger.info(String.format("Portrait: Resize to HEIGHT %d would produce image %dx%d",
+            size, size, finalWidth));
+        if (finalWidth > gcBounds.width) {
+          logger.info("Too wide; will size to width instead.");
+          size = gcBounds.width;
+          mode = Scalr.Mode.FIT_TO_WIDTH;
+        }
+      }
+      logger.info(String.format("Scaling to %d pixels for mode %s",
+          size, mode == Scalr.Mode.FIT_TO_HEIGHT ? "FIT_TO_HEIGHT" : "FIT_TO_WIDTH"));
+
+      // the rounding Scalr uses, so renders keep the size they have always had and a preview
+      // is exactly the size of the final image
+      float ratio = (float) imageHeight / (float) imageWidth;
+      if (mode == Scalr.Mode.FIT_TO_WIDTH) {
+        width = size;
+        height = Math.max(1, Math.round((float) size * ratio));
+      } else {
+        height = size;
+        width = Math.max(1, Math.round((float) size / ratio));
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.swing.JComponent;
+import javax.swing.JWindow;
+import java.awt.Graphics;
+import java.awt.GraphicsDevice;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A borderless window on a display device that shows one image at a time.
+ *
+ * The window is created once per device and reused. Showing a new image swaps it in place and
+ * moves the window so the image is centered on the device.
+ * The time from request to first paint is recorded in the {@link Metrics} show latency.
+ */
+class DisplayWindow extends JWindow {
+  private Logger logger = LogManager.getLogger();
+  private final GraphicsDevice device;
+  private final ImagePanel imagePanel = new ImagePanel();
+
+  /**
+   * Create a display window for a device. The window is not visible until an image is shown.
+   *
+   * @param device the device to display images on.
+   */
+  DisplayWindow(GraphicsDevice device) {
+    super(device.getDefaultConfiguration());
+    this.device = device;
+    this.setContentPane(this.imagePanel);
+  }
+
+  /**
+   * Show an image centered on the device. Must be called on the event dispatch thread.
+   *
+   * @param image        the image, already scaled to fit the device.
+   * @param requestNanos {@link System#nanoTime()} when the user asked for the image, used to
+   *                     log how long it took to get the image on the screen.
+   */
+  void showImage(BufferedImage image, long requestNanos) {
+    Rectangle gcBounds = this.device.getDefaultConfiguration().getBounds();
+    int xPosition = (gcBounds.width - image.getWidth()) / 2;
+    int yPosition = (gcBounds.height - image.getHeight()) / 2;
+    this.imagePanel.setImage(image, requestNanos);
+    this.setBounds(gcBounds.x + xPosition, gcBounds.y + yPosition, image.getWidth(), image.getHeight());
+    if (!this.isVisible()) {
+      this.setVisible(true);
+    }
+    this.imagePanel.repaint();
+  }
+
+  /**
+   * Hide the window and let go of the image. The window can be shown again.
+   */
+  void hideImage() {
+    this.setVisible(false);
+    this.imagePanel.setImage(null, 0);
+  }
+
+  /*
+   * Paints the current image and logs the time from request to the first paint of each image.
+   */
+  private class ImagePanel extends JComponent {
+    private BufferedImage image;
+    private long requestNanos;
+
+    void setImage(BufferedImage image, long requestNanos) {
+      this.image = image;
+      this.requestNanos = requestNanos;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      if (this.image != null) {
+        g.drawImage(this.image, 0, 0, null);
+        if (this.requestNanos != 0) {
+          getToolkit().sync();
+          Metrics.getInstance().recordShowLatency(this.requestNanos);
+          logger.info(String.format("Show latency: %d ms from request to pixels on %s",
+              (System.nanoTime() - this.requestNanos) / 1000000, device.getIDstring()));
+          this.requestNanos = 0;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package net.jeremybrooks.iris;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies the content of an image file, so that copies of the same image under different
+ * names or in different folders share one thumbnail and one render.
+ *
+ * The fingerprint is the first 128 bits of a SHA-256 hash of the file size and its content.
+ * Files up to 1 MB are hashed completely. Larger files are sampled: the first 64 KB, which hold
+ * the image header and metadata such as the capture time and camera serial number, the last
+ * 64 KB, and 16 blocks of 4 KB spread evenly between them, so a 20 MB photo costs about 200 KB
+ * of reading rather than 20 MB. Two different files can only share a sampled fingerprint if they
+ * have exactly the same size and the same bytes in every sampled block; for compressed images,
+ * where a change to any pixel shifts everything after it in the file, that does not happen in
+ * practice. In full mode every file is hashed completely.
+ */
+final class Fingerprint {
+  static final long FULL_HASH_LIMIT = 1024 * 1024;
+  private static final int HEAD_BYTES = 64 * 1024;
+  private static final int TAIL_BYTES = 64 * 1024;
+  private static final int SAMPLE_COUNT = 16;
+  private static final int SAMPLE_BYTES = 4 * 1024;
+
+  private final long high;
+  private final long low;
+
+  Fingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Compute the fingerprint of a file.
+   *
+   * @param file the file.
+   * @param full true to hash the whole file, false to sample files larger than {@link #FULL_HASH_LIMIT}.
+   * @return the fingerprint.
+   * @throws IOException if the file cannot be read.
+   */
+  static Fingerprint of(File file, boolean full) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available.", e);
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      boolean complete = full || size <= FULL_HASH_LIMIT;
+      // sampled and complete hashes of the same bytes must never be equal
+      digest.update((complete ? "full" : "sampled").getBytes(StandardCharsets.US_ASCII));
+      digest.update(ByteBuffer.allocate(8).putLong(0, size));
+      ByteBuffer buffer = ByteBuffer.allocate(HEAD_BYTES);
+      if (complete) {
+        update(digest, channel, 0, size, buffer);
+      } else {
+        update(digest, channel, 0, HEAD_BYTES, buffer);
+        long span = size - HEAD_BYTES - TAIL_BYTES - SAMPLE_BYTES;
+        for (int i = 1; i <= SAMPLE_COUNT; i++) {
+          update(digest, channel, HEAD_BYTES + span * i / (SAMPLE_COUNT + 1), SAMPLE_BYTES, buffer);
+        }
+        update(digest, channel, size - TAIL_BYTES, TAIL_BYTES, buffer);
+      }
+    }
+    ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+    return new Fingerprint(hash.getLong(0), hash.getLong(8));
+  }
+
+  /*
+   * Add a range of the file to the digest.
+   */
+  private static void update(MessageDigest digest, FileChannel channel, long position, long length,
+                             ByteBuffer buffer) throws IOException {
+    long end = position + length;
+    while (position < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("File is shorter than its size; it may be being written.");
+      }
+      buffer.flip();
+      digest.update(buffer);
+      position += read;
+    }
+  }
+
+  long getHigh() {
+    return this.high;
+  }
+
+  long getLow() {
+    return this.low;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Fingerprint)) {
+      return false;
+    }
+    Fingerprint other = (Fingerprint) o;
+    return this.high == other.high && this.low == other.low;
+  }
+
+  @Override
+  public int hashCode() {
+    // the bits are already uniformly distributed
+    return (int) this.high;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", this.high, this.low);
+  }
+}
@@ -0,0 +1,294 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link Fingerprint} of each image file, by path.
+ * Implemented as a singleton.
+ *
+ * A fingerprint is computed once for each version of a file, and is used again as long as the
+ * size and modification time of the file are unchanged, so looking one up costs a stat rather
+ * than a read. The index is saved in the configuration directory with the thumbnail cache, so
+ * files are not read again on the next start.
+ *
+ * Files deleted while Iris was not running are forgotten in the background after the index is
+ * loaded, so the caches can drop entries that no file has any more; see {@link #getFingerprints()}.
+ * Each time the index starts out empty, because there is no saved index or it cannot be read, it
+ * gets a new epoch; see {@link #getEpoch()}.
+ *
+ * The cache.fingerprint property selects how files are fingerprinted: "sampled" (the default)
+ * or "full"; see {@link Fingerprint}. The saved index is discarded if the setting changes.
+ */
+class FingerprintIndex {
+  private static final int MAGIC = 0x49524953; // "IRIS"
+  private static final int VERSION = 2;
+
+  private Logger logger = LogManager.getLogger();
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final boolean full;
+  private File indexFile;
+  private boolean readOnly;
+  private long epoch;
+  private volatile boolean dirty;
+
+  private static class Holder {
+    private static final FingerprintIndex instance = new FingerprintIndex();
+  }
+
+  /**
+   * Get the fingerprint index instance.
+   * @return fingerprint index instance.
+   */
+  static FingerprintIndex getInstance() {
+    return Holder.instance;
+  }
+
+  private FingerprintIndex() {
+    this.full = "full".equalsIgnoreCase(Main.getProperty(Main.PROPERTY_CACHE_FINGERPRINT));
+  }
+
+  /**
+   * Read the saved index. If it cannot be read, the index starts out empty.
+   *
+   * @param file     the index file; {@link #save()} writes to it too.
+   * @param readOnly true if another process may write the index, so it must not be saved.
+   */
+  synchronized void load(File file, boolean readOnly) {
+    this.indexFile = file;
+    this.readOnly = readOnly;
+    this.epoch = new Random().nextLong();
+    if (!file.exists()) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unrecognized index format.");
+      }
+      if (in.readBoolean() != this.full) {
+        logger.info("The fingerprint mode has changed; files will be fingerprinted again.");
+        this.dirty = true;
+        return;
+      }
+      long savedEpoch = in.readLong();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        this.entries.put(path, new Entry(in.readLong(), in.readLong(), new Fingerprint(in.readLong(), in.readLong())));
+      }
+      this.epoch = savedEpoch;
+      logger.info(String.format("Loaded %d fingerprints from %s in %d ms",
+          count, file.getAbsolutePath(), System.currentTimeMillis() - start));
+    } catch (IOException e) {
+      logger.warn("Could not load fingerprint index " + file.getAbsolutePath() + "; starting empty.", e);
+      this.entries.clear();
+      this.dirty = true;
+      return;
+    }
+    Thread thread = new Thread(this::forgetDeleted, "iris-fingerprint-prune");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /*
+   * Forget files that were deleted while Iris was not running. A file is only forgotten if its
+   * folder is still there, so the images on a drive that is not mounted right now are kept.
+   */
+  private void forgetDeleted() {
+    long start = System.currentTimeMillis();
+    int forgotten = 0;
+    for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+      File file = new File(e.getKey());
+      File folder = file.getParentFile();
+      // remove only the entry that was checked, in case the file has been created again since
+      if (!file.exists() && folder != null && folder.isDirectory()
+          && this.entries.remove(e.getKey(), e.getValue())) {
+        forgotten++;
+      }
+    }
+    if (forgotten > 0) {
+      this.dirty = true;
+    }
+    logger.info(String.format("Forgot %d deleted files in %d ms", forgotten, System.currentTimeMillis() - start));
+  }
+
+  /**
+   * Write the index to disk if anything has changed since it was loaded or last saved,
+   * unless it was loaded read only.
+   */
+  synchronized void save() {
+    if (!this.dirty || this.indexFile == null || this.readOnly) {
+      return;
+    }
+    this.dirty = false;
+    File tmp = new File(this.indexFile.getParentFile(), this.indexFile.getName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(this.full);
+        out.writeLong(this.epoch);
+        // files are fingerprinted while the index is saved, so a copy is written
+        Map<String, Entry> copy = new HashMap<>(this.entries);
+        out.writeInt(copy.size());
+        for (Map.Entry<String, Entry> e : copy.entrySet()) {
+          Entry entry = e.getValue();
+          out.writeUTF(e.getKey());
+          out.writeLong(entry.size);
+          out.writeLong(entry.modified);
+          out.writeLong(entry.fingerprint.getHigh());
+          out.writeLong(entry.fingerprint.getLow());
+        }
+      }
+      Files.move(tmp.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.info("Saved " + this.entries.size() + " fingerprints to " + this.indexFile.getAbsolutePath());
+    } catch (IOException e) {
+      this.dirty = true;
+      logger.error("Error saving fingerprint index " + this.indexFile.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Get the epoch of the index. The index has followed every change to the files it knows since
+   * it got this epoch, so a fingerprint that was in the index during this epoch and is not any more
+   * belongs to a file that has been deleted or changed. A fingerprint that was never in it may
+   * just belong to a file the index has not seen yet.
+   *
+   * @return the epoch.
+   */
+  synchronized long getEpoch() {
+    return this.epoch;
+  }
+
+  /**
+   * Get the fingerprint of a file, reading the file if it is new or has changed.
+   *
+   * @param file the file.
+   * @return the fingerprint.
+   * @throws IOException if the file cannot be read.
+   */
+  Fingerprint get(File file) throws IOException {
+    Fingerprint fingerprint = getIfKnown(file);
+    if (fingerprint == null) {
+      // stat before reading, so a file changed while it is read is fingerprinted again next time
+      long size = file.length();
+      long modified = file.lastModified();
+      fingerprint = Fingerprint.of(file, this.full);
+      this.entries.put(file.getAbsolutePath(), new Entry(size, modified, fingerprint));
+      this.dirty = true;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Get the fingerprint of a file if it has already been computed for the file as it is now.
+   * The file is not read.
+   *
+   * @param file the file.
+   * @return the fingerprint, or null if it is not known or the file has changed.
+   */
+  Fingerprint getIfKnown(File file) {
+    Entry entry = this.entries.get(file.getAbsolutePath());
+    if (entry == null || entry.size != file.length() || entry.modified != file.lastModified()) {
+      return null;
+    }
+    return entry.fingerprint;
+  }
+
+  /**
+   * Get the last fingerprint computed for a file without checking whether the file has changed,
+   * for lookups that must not touch the disk, such as painting the list.
+   *
+   * @param file the file.
+   * @return the fingerprint, or null if it is not known.
+   */
+  Fingerprint peek(File file) {
+    Entry entry = this.entries.get(file.getAbsolutePath());
+    return entry == null ? null : entry.fingerprint;
+  }
+
+  /**
+   * Get what was recorded when a file was last fingerprinted, without checking whether the file
+   * has changed since, for code that must not touch the disk.
+   *
+   * @param file the file.
+   * @return the entry, or null if the file has not been fingerprinted.
+   */
+  Entry peekEntry(File file) {
+    return this.entries.get(file.getAbsolutePath());
+  }
+
+  /**
+   * Get the fingerprints of all the files in the index. Cache entries for any other fingerprint
+   * belong to files that have been deleted or changed since.
+   *
+   * @return the fingerprints.
+   */
+  Set<Fingerprint> getFingerprints() {
+    Set<Fingerprint> fingerprints = new HashSet<>();
+    for (Entry entry : this.entries.values()) {
+      fingerprints.add(entry.fingerprint);
+    }
+    return fingerprints;
+  }
+
+  /**
+   * Forget the fingerprint of a file that has changed or been removed.
+   *
+   * @param file the file.
+   * @return the fingerprint it had, or null if it was not known.
+   */
+  Fingerprint forget(File file) {
+    Entry entry = this.entries.remove(file.getAbsolutePath());
+    if (entry == null) {
+      return null;
+    }
+    this.dirty = true;
+    return entry.fingerprint;
+  }
+
+  /**
+   * A file's size and modification time when it was fingerprinted, and its fingerprint.
+   */
+  static final class Entry {
+    private final long size;
+    private final long modified;
+    private final Fingerprint fingerprint;
+
+    Entry(long size, long modified, Fingerprint fingerprint) {
+      this.size = size;
+      this.modified = modified;
+      this.fingerprint = fingerprint;
+    }
+
+    long getSize() {
+      return this.size;
+    }
+
+    long getModified() {
+      return this.modified;
+    }
+
+    Fingerprint getFingerprint() {
+      return this.fingerprint;
+    }
+  }
+}
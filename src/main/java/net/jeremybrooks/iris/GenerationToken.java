@@ -0,0 +1,65 @@
+package net.jeremybrooks.iris;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identifies one load of the playlist. Work started for a load carries its token; when the
+ * playlist is loaded again the old token is cancelled, and work holding it stops at its next
+ * check and throws its results away.
+ *
+ * Code that publishes a result should do so in {@link #runIfCurrent(Runnable)}, so the result
+ * is either published before the token is cancelled or not at all. Tokens are cancelled on the
+ * event dispatch thread, which waits for the action, so actions must be quick: no disk I/O.
+ */
+final class GenerationToken {
+  private static final AtomicLong counter = new AtomicLong();
+
+  /** A token that is never cancelled, for work that is not part of a playlist load. */
+  static final GenerationToken NONE = new GenerationToken();
+
+  private final long generation = counter.incrementAndGet();
+  private volatile boolean cancelled;
+
+  /**
+   * Cancel the token. Waits for any {@link #runIfCurrent(Runnable)} in progress to finish first.
+   */
+  synchronized void cancel() {
+    this.cancelled = true;
+  }
+
+  boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * Stop the current work if the token has been cancelled.
+   *
+   * @throws CancellationException if the token has been cancelled.
+   */
+  void throwIfCancelled() {
+    if (this.cancelled) {
+      throw new CancellationException(this + " was cancelled.");
+    }
+  }
+
+  /**
+   * Run an action unless the token has been cancelled. The token cannot be cancelled
+   * while the action runs, so the action must be quick.
+   *
+   * @param action the action.
+   * @return true if the action ran.
+   */
+  synchronized boolean runIfCurrent(Runnable action) {
+    if (this.cancelled) {
+      return false;
+    }
+    action.run();
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "Generation " + this.generation;
+  }
+}
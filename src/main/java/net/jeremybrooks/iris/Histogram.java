@@ -0,0 +1,123 @@
+package net.jeremybrooks.iris;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations, for timings recorded on many threads at once.
+ *
+ * Durations are counted in buckets that grow by a quarter each, from 10 microseconds to
+ * a few minutes, so percentiles are accurate to within about 25%.
+ */
+class Histogram {
+  private static final long MIN_NANOS = 10000;
+  private static final double GROWTH = 1.25;
+  private static final int BUCKETS = 80;
+  private static final long[] upperBounds = new long[BUCKETS];
+
+  static {
+    double bound = MIN_NANOS;
+    for (int i = 0; i < BUCKETS; i++) {
+      upperBounds[i] = (long) bound;
+      bound *= GROWTH;
+    }
+    upperBounds[BUCKETS - 1] = Long.MAX_VALUE;
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos the duration in nanoseconds.
+   */
+  void record(long nanos) {
+    if (nanos < 0) {
+      return;
+    }
+    this.counts.incrementAndGet(bucket(nanos));
+    this.count.increment();
+    this.totalNanos.add(nanos);
+    this.maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Record the time since a start time.
+   *
+   * @param startNanos {@link System#nanoTime()} at the start.
+   */
+  void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Forget all recorded durations. Durations recorded while resetting may be partly lost.
+   */
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts.set(i, 0);
+    }
+    this.count.reset();
+    this.totalNanos.reset();
+    this.maxNanos.set(0);
+  }
+
+  /**
+   * Get the count, mean, percentiles, and maximum of the recorded durations.
+   *
+   * @return snapshot of the histogram.
+   */
+  Timing snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = this.counts.get(i);
+      total += snapshot[i];
+    }
+    long max = this.maxNanos.get();
+    double mean = total == 0 ? 0 : toMillis(this.totalNanos.sum()) / total;
+    return new Timing(total, mean, percentile(snapshot, total, 0.50, max), percentile(snapshot, total, 0.95, max),
+        percentile(snapshot, total, 0.99, max), toMillis(max));
+  }
+
+  /*
+   * Upper bound of the bucket holding the percentile, never more than the largest duration seen.
+   */
+  private static double percentile(long[] snapshot, long total, double fraction, long max) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * fraction);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return toMillis(Math.min(upperBounds[i], max));
+      }
+    }
+    return toMillis(max);
+  }
+
+  private static int bucket(long nanos) {
+    if (nanos <= MIN_NANOS) {
+      return 0;
+    }
+    int index = Math.min(BUCKETS - 1, (int) Math.ceil(Math.log((double) nanos / MIN_NANOS) / Math.log(GROWTH)));
+    // rounding in the log can put a value one bucket too low or too high
+    while (index < BUCKETS - 1 && nanos > upperBounds[index]) {
+      index++;
+    }
+    while (index > 0 && nanos <= upperBounds[index - 1]) {
+      index--;
+    }
+    return index;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1000000.0;
+  }
+}
@@ -3,55 +3,94 @@ package net.jeremybrooks.iris;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
 
 /**
- * Simple image cache.
+ * Thumbnail image cache.
  * Implemented as a singleton.
+ *
+ * Thumbnails are keyed by the {@link Fingerprint} of the image file, so copies of an image
+ * under other names or in other folders share one thumbnail. Lookups use the fingerprint last
+ * computed for the file, without touching the disk, so they are safe while painting the list;
+ * an image whose file has not been fingerprinted yet is not found.
+ * The cache is safe to use from any thread. It is limited by the memory used by the compressed
+ * thumbnails it holds; the limit is set in megabytes with the cache.thumbnail.megabytes property
+ * (default 128, enough for tens of thousands of thumbnails).
+ * Least recently used thumbnails are evicted when the limit is reached, and half of the cache is
+ * released when the heap is running low.
  */
 public class ImageCache {
   private Logger logger = LogManager.getLogger();
-  private Map<String, Thumbnail> cache;
-  private static ImageCache instance;
+  private final WeightedLruCache<Fingerprint, Thumbnail> cache;
+
+  private static class Holder {
+    private static final ImageCache instance = new ImageCache();
+  }
 
   /**
    * Get the image cache instance.
    * @return image cache instance.
    */
   public static ImageCache getInstance() {
-    if (instance == null) {
-      instance = new ImageCache();
-    }
-    return instance;
+    return Holder.instance;
   }
 
   private ImageCache() {
-    this.cache = new HashMap<>();
+    long maxBytes = Main.getIntProperty(Main.PROPERTY_THUMBNAIL_CACHE_MEGABYTES, 128) * 1024L * 1024L;
+    this.cache = new WeightedLruCache<>("Image cache", maxBytes, Thumbnail::getMemoryBytes);
+    MemoryPressureMonitor.addListener(() -> {
+      int evicted = this.cache.evictTo(this.cache.getWeight() / 2);
+      logger.warn("Released " + evicted + " thumbnails from image cache.");
+    });
   }
 
   /**
    * Add an image to the cache.
    * Duplicate images will be ignored.
    * @param thumbnail thumbnail to add.
-   * @param name name of the image.
+   * @param file the image file; it must have been fingerprinted.
    */
-  public void addImage(Thumbnail thumbnail, String name) {
-    if (this.cache.containsKey(name)) {
-      logger.info("Image cache already contains " + name + "; not adding.");
+  public void addImage(Thumbnail thumbnail, File file) {
+    Fingerprint fingerprint = FingerprintIndex.getInstance().peek(file);
+    if (fingerprint == null) {
+      logger.warn(file.getAbsolutePath() + " has not been fingerprinted; not adding.");
+    } else if (this.cache.containsKey(fingerprint)) {
+      logger.info("Image cache already contains " + file.getName() + " (" + fingerprint + "); not adding.");
     } else {
-      logger.info("Adding " + name + " to image cache.");
-      this.cache.put(name, thumbnail);
+      logger.info("Adding " + file.getName() + " (" + fingerprint + ") to image cache.");
+      this.cache.put(fingerprint, thumbnail);
     }
   }
 
   /**
    * Get an image from the cache.
-   * @param name name of the image to get.
-   * @return thumbnail image matching the name, or null if the image doesn't exist.
+   * @param file the image file.
+   * @return thumbnail of the file's content, or null if the image isn't cached.
+   */
+  public Thumbnail getImage(File file) {
+    Fingerprint fingerprint = FingerprintIndex.getInstance().peek(file);
+    return fingerprint == null ? null : this.cache.get(fingerprint);
+  }
+
+  /**
+   * Remove an image from the cache. Copies of the image lose their thumbnail too.
+   * @param file the image file.
+   */
+  public void removeImage(File file) {
+    Fingerprint fingerprint = FingerprintIndex.getInstance().peek(file);
+    if (fingerprint != null) {
+      this.cache.remove(fingerprint);
+    }
+  }
+
+  /**
+   * Check for an image without affecting its eviction order.
+   * @param file the image file.
+   * @return true if the image is cached.
    */
-  public Thumbnail getImage(String name) {
-    return this.cache.get(name);
+  public boolean contains(File file) {
+    Fingerprint fingerprint = FingerprintIndex.getInstance().peek(file);
+    return fingerprint != null && this.cache.containsKey(fingerprint);
   }
 
   /**
@@ -61,4 +100,44 @@ public class ImageCache {
     this.cache.clear();
     this.logger.info("Cache cleared.");
   }
+
+  /**
+   * Number of lookups that found a thumbnail.
+   * @return cache hits.
+   */
+  long getHits() {
+    return this.cache.getHits();
+  }
+
+  /**
+   * Number of lookups that did not find a thumbnail.
+   * @return cache misses.
+   */
+  long getMisses() {
+    return this.cache.getMisses();
+  }
+
+  /**
+   * Number of thumbnails evicted to stay under the memory limit.
+   * @return evictions.
+   */
+  long getEvictions() {
+    return this.cache.getEvictions();
+  }
+
+  /**
+   * Memory held by cached thumbnails.
+   * @return bytes held.
+   */
+  long getBytes() {
+    return this.cache.getWeight();
+  }
+
+  /**
+   * Number of cached thumbnails.
+   * @return cache size.
+   */
+  int size() {
+    return this.cache.size();
+  }
 }
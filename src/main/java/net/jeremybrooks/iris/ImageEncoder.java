@@ -0,0 +1,59 @@
+package net.jeremybrooks.iris;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Encodes images to bytes for the caches.
+ */
+final class ImageEncoder {
+  private ImageEncoder() {
+  }
+
+  /**
+   * Encode an image. JPEG has no alpha channel, so transparent images are flattened onto black
+   * before they are written as JPEG.
+   *
+   * @param image      the image.
+   * @param formatName ImageIO format name.
+   * @param quality    JPEG compression quality, from 0 to 1; ignored for other formats.
+   * @return the encoded image, or null if there is no writer for the format.
+   * @throws IOException if the image cannot be encoded.
+   */
+  static byte[] encode(BufferedImage image, String formatName, float quality) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!"jpg".equals(formatName)) {
+      return ImageIO.write(image, formatName, out) ? out.toByteArray() : null;
+    }
+    if (image.getColorModel().hasAlpha()) {
+      BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = rgb.createGraphics();
+      g.drawImage(image, 0, 0, null);
+      g.dispose();
+      image = rgb;
+    }
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+    if (!writers.hasNext()) {
+      return null;
+    }
+    ImageWriter writer = writers.next();
+    try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      writer.setOutput(ios);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return out.toByteArray();
+  }
+}
@@ -1,23 +1,56 @@
 package net.jeremybrooks.iris;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
+import javax.swing.Icon;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.ListCellRenderer;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
 import java.io.File;
+import java.util.Collections;
+import java.util.Map;
 
 public class LabelListCellRenderer extends JLabel implements ListCellRenderer<File> {
-  private Logger logger = LogManager.getLogger();
+  private static final Icon PLACEHOLDER = new Icon() {
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+      g.setColor(Color.lightGray);
+      g.drawRect(x, y, getIconWidth() - 1, getIconHeight() - 1);
+    }
+
+    @Override
+    public int getIconWidth() {
+      return ThumbnailPipeline.THUMBNAIL_SIZE;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return ThumbnailPipeline.THUMBNAIL_SIZE * 3 / 4;
+    }
+  };
+  private Map<File, Dimension> originalSizes = Collections.emptyMap();
+  // label of the folder that starts at the row being rendered, or null
+  private String groupLabel;
+
+  /**
+   * Set the image dimensions to show for files whose thumbnail is not loaded yet.
+   *
+   * @param originalSizes dimensions by file, such as those saved with the last session.
+   */
+  void setOriginalSizes(Map<File, Dimension> originalSizes) {
+    this.originalSizes = originalSizes;
+  }
 
   public Component getListCellRendererComponent(JList<? extends File> list, File value, int index, boolean isSelected,
                                                 boolean cellHasFocus) {
     String name = value.getName().substring(0, value.getName().lastIndexOf('.'));
     this.setText(name);
     this.setOpaque(true);
+    this.groupLabel = list.getModel() instanceof PlaylistModel
+        ? ((PlaylistModel) list.getModel()).getGroupLabel(index) : null;
     if (isSelected) {
       setBackground(Color.blue);
       setForeground(Color.white);
@@ -26,16 +59,33 @@ public class LabelListCellRenderer extends JLabel implements ListCellRenderer<Fi
       setForeground(Color.black);
     }
 
-    Thumbnail thumbnail = ImageCache.getInstance().getImage(value.getName());
+    Thumbnail thumbnail = ImageCache.getInstance().getImage(value);
     if (thumbnail == null) {
-      // NOTE: this should never happen. The thumbnail is cached before the file is added to the model.
-      logger.error("Missing thumbnail " + value.getName());
-      this.setIcon(null);
-      this.setText(name);
+      // not loaded yet; the thumbnail loader will repaint the list when it arrives
+      this.setIcon(PLACEHOLDER);
+      Dimension size = this.originalSizes.get(value);
+      this.setText(size == null ? name : name + "   [" + size.width + "x" + size.height + "]");
     } else {
       this.setIcon(thumbnail);
       this.setText(name + "   [" + thumbnail.getOriginalWidth() + "x" + thumbnail.getOriginalHeight() + "]");
     }
     return this;
   }
+
+  /*
+   * Paint the row, and above the first image of each folder a separator and the folder label.
+   * The label is drawn at the top right, over the row, so every row keeps the same height.
+   */
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    if (this.groupLabel != null) {
+      g.setColor(Color.gray);
+      g.drawLine(0, 0, getWidth(), 0);
+      g.setFont(getFont().deriveFont(10f));
+      FontMetrics metrics = g.getFontMetrics();
+      g.drawString(this.groupLabel, Math.max(0, getWidth() - metrics.stringWidth(this.groupLabel) - 4),
+          metrics.getAscent() + 2);
+    }
+  }
 }
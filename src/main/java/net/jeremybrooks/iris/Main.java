@@ -5,11 +5,19 @@ import org.apache.logging.log4j.Logger;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -17,25 +25,56 @@ import java.util.Properties;
  */
 public class Main {
   static final String PROPERTY_SOURCE_DIRECTORY = "source.directory";
+  static final String PROPERTY_SOURCE_RECURSIVE = "source.recursive";
+  static final String PROPERTY_SOURCE_SCAN_THREADS = "source.scan.threads";
   static final String PROPERTY_WINDOW_X = "window.x";
   static final String PROPERTY_WINDOW_Y = "window.y";
   static final String PROPERTY_WINDOW_HEIGHT = "window.height";
   static final String PROPERTY_WINDOW_WIDTH = "window.width";
+  static final String PROPERTY_SOURCE_WATCH = "source.watch";
+  static final String PROPERTY_SOURCE_WATCH_DEBOUNCE = "source.watch.debounce.ms";
+  static final String PROPERTY_THUMBNAIL_WORKERS = "thumbnail.workers";
+  static final String PROPERTY_THUMBNAIL_CACHE_MEGABYTES = "cache.thumbnail.megabytes";
+  static final String PROPERTY_HEAP_THRESHOLD_PERCENT = "heap.threshold.percent";
+  static final String PROPERTY_RENDER_CACHE_MEGABYTES = "cache.render.megabytes";
+  static final String PROPERTY_CACHE_FINGERPRINT = "cache.fingerprint";
+  static final String PROPERTY_DISPLAY_PROGRESSIVE = "display.progressive";
+  static final String PROPERTY_DISPLAY_MIRROR = "display.mirror";
+  static final String PROPERTY_DISPLAY_DECODE_MEGABYTES = "display.decode.megabytes";
+  static final String PROPERTY_PREFETCH_COUNT = "prefetch.count";
+  static final String PROPERTY_PREFETCH_MEGABYTES = "prefetch.megabytes";
+  static final String PROPERTY_SLIDESHOW_INTERVAL = "slideshow.interval.seconds";
+  static final String PROPERTY_SCALING_ENGINE = "scaling.engine";
+  static final String PROPERTY_SCALING_BUDGET = "scaling.budget.ms";
 
   private static Properties properties = new Properties();
   private static File propertiesFile;
+  private static File configDir;
+  private static FileLock cacheLock;
+  private static DiskCache thumbnailCache;
+  private static final Map<String, DiskCache> renderCaches = new HashMap<>();
+  private static ScalingEngine scalingEngine;
   private static Logger logger = LogManager.getLogger();
 
   /**
    * Program entry point.
    *
-   * @param args no command line arguments are supported.
+   * @param args --prewarm to fill the caches without a user interface (see {@link Prewarm});
+   *             anything else starts the user interface. Other arguments are ignored, since
+   *             launchers such as the macOS Finder add their own.
    */
   public static void main(String... args) {
+    boolean prewarm = args.length > 0 && "--prewarm".equals(args[0]);
+    if (prewarm) {
+      System.setProperty("java.awt.headless", "true");
+    }
     logger.info(String.format("%s version %s starting", Main.class.getPackage().getImplementationTitle(),
         Main.class.getPackage().getImplementationVersion()));
+    if (!prewarm && args.length > 0) {
+      logger.info("Ignoring arguments " + String.join(" ", args));
+    }
     // set up preferences
-    File configDir = new File(System.getProperty("user.home") + "/.iris");
+    configDir = new File(System.getProperty("user.home") + "/.iris");
     if (!configDir.exists()) {
       if (!configDir.mkdirs()) {
         error("Could not create directory " + configDir.getAbsolutePath(), new Exception());
@@ -69,6 +108,22 @@ public class Main {
       }
     }
 
+    if (!lockCaches()) {
+      if (prewarm) {
+        error("The caches in " + configDir.getAbsolutePath() + " are in use by another Iris process. " +
+            "Try again when it has finished.", null);
+      }
+      logger.warn("The caches are in use by another Iris process; they will not be updated.");
+    }
+    FingerprintIndex.getInstance().load(new File(configDir, "fingerprints.idx"), cacheLock == null);
+    thumbnailCache = new DiskCache(configDir, "thumbnails", "png", cacheLock == null);
+    thumbnailCache.load();
+    if (prewarm) {
+      System.exit(new Prewarm().run(args));
+    }
+    Metrics.getInstance().register();
+
+    Session session = Session.load(getSessionFile());
     MainWindow mainWindow = new MainWindow();
     try {
       int height = Integer.parseInt(getProperty(PROPERTY_WINDOW_HEIGHT));
@@ -83,7 +138,9 @@ public class Main {
     }
     SwingUtilities.invokeLater(() -> {
       mainWindow.setVisible(true);
-      mainWindow.loadPlaylist();
+      if (session == null || !mainWindow.restoreSession(session)) {
+        mainWindow.loadPlaylist();
+      }
     });
     Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownHook(mainWindow)));
   }
@@ -91,10 +148,33 @@ public class Main {
 
   private static void error(String errorMessage, Throwable cause) {
     logger.error("Exiting due to error " + errorMessage, cause);
-    JOptionPane.showMessageDialog(null, errorMessage, "Error", JOptionPane.ERROR_MESSAGE);
+    if (GraphicsEnvironment.isHeadless()) {
+      System.err.println(errorMessage);
+    } else {
+      JOptionPane.showMessageDialog(null, errorMessage, "Error", JOptionPane.ERROR_MESSAGE);
+    }
     System.exit(1);
   }
 
+  /*
+   * Lock the caches in the configuration directory for this process, so a prewarm and the user
+   * interface never write the same cache files at once. The lock is held until the process exits.
+   * Returns false if another process holds it.
+   */
+  private static boolean lockCaches() {
+    File lockFile = new File(configDir, "cache.lock");
+    try {
+      FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      cacheLock = channel.tryLock();
+      if (cacheLock == null) {
+        channel.close();
+      }
+    } catch (IOException | OverlappingFileLockException e) {
+      logger.warn("Could not lock " + lockFile.getAbsolutePath(), e);
+    }
+    return cacheLock != null;
+  }
+
   /**
    * Set the key/value pair in properties.
    *
@@ -115,6 +195,93 @@ public class Main {
     return properties.getProperty(key);
   }
 
+  /**
+   * Get the value for the specified key as an int.
+   *
+   * @param key          key to get value for.
+   * @param defaultValue value to return if the key is missing or is not a number.
+   * @return current value for the key, or the default value.
+   */
+  static int getIntProperty(String key, int defaultValue) {
+    String value = properties.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      logger.warn("Invalid value '" + value + "' for property " + key + "; using " + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Get the persistent thumbnail cache stored in the configuration directory.
+   *
+   * @return the thumbnail cache.
+   */
+  static DiskCache getThumbnailCache() {
+    return thumbnailCache;
+  }
+
+  /**
+   * Get the scaling engine named by the scaling.engine property: "auto" (the default) to choose
+   * for each image within the scaling.budget.ms latency budget, or "scalr", "progressive" or
+   * "box" to always use that one.
+   *
+   * @return the scaling engine.
+   */
+  static synchronized ScalingEngine getScalingEngine() {
+    if (scalingEngine == null) {
+      String name = getProperty(PROPERTY_SCALING_ENGINE);
+      if (name == null || name.trim().isEmpty()) {
+        name = AdaptiveScalingEngine.AUTOMATIC;
+      }
+      int budget = getIntProperty(PROPERTY_SCALING_BUDGET, AdaptiveScalingEngine.DEFAULT_BUDGET_MILLIS);
+      scalingEngine = AdaptiveScalingEngine.forName(name.trim(), budget);
+      if (scalingEngine == null) {
+        logger.warn("Unknown scaling engine '" + name + "'; using " + AdaptiveScalingEngine.AUTOMATIC);
+        scalingEngine = new AdaptiveScalingEngine(budget);
+      }
+      logger.info("Scaling with " + scalingEngine);
+    }
+    return scalingEngine;
+  }
+
+  /**
+   * Get the file the playlist snapshot is saved in at exit, next to the properties file.
+   *
+   * @return the session file.
+   */
+  static File getSessionFile() {
+    return new File(configDir, "session.dat");
+  }
+
+  /**
+   * Get the persistent cache of renders for a display size, stored in the configuration directory.
+   * Render caches are filled by {@link Prewarm}; the user interface only reads them.
+   *
+   * @param width  display width.
+   * @param height display height.
+   * @param create true to create the cache if it does not exist yet.
+   * @return the render cache, or null if it does not exist and create is false.
+   */
+  static DiskCache getRenderCache(int width, int height, boolean create) {
+    if (configDir == null) {
+      return null;
+    }
+    String name = "render-" + width + "x" + height;
+    synchronized (renderCaches) {
+      DiskCache cache = renderCaches.get(name);
+      if (cache == null && (create || new File(configDir, name + ".idx").exists())) {
+        cache = new DiskCache(configDir, name, "jpg", cacheLock == null);
+        cache.load();
+        renderCaches.put(name, cache);
+      }
+      return cache;
+    }
+  }
+
   /**
    * Save the current configuration.
    */
@@ -2,10 +2,9 @@ package net.jeremybrooks.iris;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.imgscalr.Scalr;
 
 import javax.imageio.ImageIO;
-import javax.swing.DefaultListModel;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -18,7 +17,6 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.JWindow;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
@@ -34,22 +32,55 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Image;
 import java.awt.Insets;
-import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Jeremy Brooks
  */
 public class MainWindow extends JFrame {
   private GraphicsDevice[] devices;
-  private JWindow imageDisplayWindow;
+  private final Map<GraphicsDevice, DisplayWindow> displayWindows = new HashMap<>();
+  private final ExecutorService displayExecutor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "iris-display");
+    t.setDaemon(true);
+    return t;
+  });
+  private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "iris-render");
+    t.setDaemon(true);
+    return t;
+  });
+  private final AtomicLong showGeneration = new AtomicLong();
+  private Future<?> pendingPreview;
+  private Future<?> pendingRender;
+  // generation of the last full quality image shown; only used on the EDT
+  private long finalShownGeneration;
+  private Prefetcher prefetcher;
+  private MultiDisplayRenderer displayRenderer;
+  private final LabelListCellRenderer cellRenderer = new LabelListCellRenderer();
+  private Slideshow slideshow;
+  private ThumbnailLoader thumbnailLoader;
+  private DirectoryWatcher directoryWatcher;
+  // the current playlist load; only used on the EDT
+  private GenerationToken loadToken = GenerationToken.NONE;
   private Logger logger = LogManager.getLogger();
 
   /**
@@ -81,7 +112,26 @@ public class MainWindow extends JFrame {
     this.setIconImages(images);
     this.setTitle(MainWindow.class.getPackage().getImplementationTitle() + " : " +
         MainWindow.class.getPackage().getImplementationVersion());
-    this.imageList.setCellRenderer(new LabelListCellRenderer());
+    this.imageList.setCellRenderer(this.cellRenderer);
+    // a fixed height keeps the list from asking the renderer about every row to lay itself out
+    this.imageList.setFixedCellHeight(ThumbnailPipeline.THUMBNAIL_SIZE);
+    ThumbnailPipeline pipeline = new ThumbnailPipeline(
+        Main.getIntProperty(Main.PROPERTY_THUMBNAIL_WORKERS, Runtime.getRuntime().availableProcessors()),
+        Main.getThumbnailCache());
+    this.thumbnailLoader = new ThumbnailLoader(pipeline, Main.getThumbnailCache(),
+        file -> SwingUtilities.invokeLater(() -> imageList.repaint()));
+    this.scrollPane1.getViewport().addChangeListener(e -> requestVisibleThumbnails());
+    this.prefetcher = new Prefetcher(Main.getIntProperty(Main.PROPERTY_PREFETCH_COUNT, 2),
+        Main.getIntProperty(Main.PROPERTY_PREFETCH_MEGABYTES, 256) * 1024L * 1024L);
+    this.imageList.addListSelectionListener(e -> {
+      if (!e.getValueIsAdjusting()) {
+        prefetchAroundSelection();
+      }
+    });
+    this.displayRenderer = new MultiDisplayRenderer(this.prefetcher);
+    this.slideshow = new Slideshow(this.displayRenderer, this::presentSlide);
+    this.menuItemMirror.setSelected(Boolean.parseBoolean(Main.getProperty(Main.PROPERTY_DISPLAY_MIRROR)));
+    this.menuItemSubfolders.setSelected(Boolean.parseBoolean(Main.getProperty(Main.PROPERTY_SOURCE_RECURSIVE)));
   }
 
   private void menuItemQuitActionPerformed() {
@@ -91,26 +141,58 @@ public class MainWindow extends JFrame {
   private void menuItemSourceDirectoryActionPerformed() {
     JFileChooser chooser = new JFileChooser();
     chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-    chooser.setCurrentDirectory(new File(Main.getProperty("source.directory")));
-    chooser.setMultiSelectionEnabled(false);
+    SourceRoots roots = SourceRoots.fromProperties();
+    if (!roots.isEmpty()) {
+      chooser.setCurrentDirectory(roots.getRoots().get(0).toFile());
+    }
+    chooser.setMultiSelectionEnabled(true);
     int result = chooser.showDialog(this, "OK");
     if (result == JFileChooser.APPROVE_OPTION) {
-      Main.setProperty("source.directory", chooser.getSelectedFile().getAbsolutePath());
+      // the roots are shown in the order they were selected
+      StringBuilder source = new StringBuilder();
+      File[] selected = chooser.getSelectedFiles();
+      for (File directory : selected.length == 0 ? new File[]{chooser.getSelectedFile()} : selected) {
+        if (source.length() > 0) {
+          source.append(File.pathSeparator);
+        }
+        source.append(directory.getAbsolutePath());
+      }
+      Main.setProperty(Main.PROPERTY_SOURCE_DIRECTORY, source.toString());
       Main.saveProperties();
       this.loadPlaylist();
     }
   }
 
+  private void menuItemSubfoldersActionPerformed() {
+    Main.setProperty(Main.PROPERTY_SOURCE_RECURSIVE, Boolean.toString(this.menuItemSubfolders.isSelected()));
+    Main.saveProperties();
+    this.loadPlaylist();
+  }
+
   /**
-   * Load the images from the source directory.
-   * Warn the user if there is no source directory or if no files were found in the directory.
+   * Load the images from the source directories.
+   * Warn the user if there is no source directory or if no files were found in the directories.
+   *
+   * Each folder's images are added to the list as soon as the folder has been read, so the list
+   * can be used while a large tree is still being scanned.
+   *
+   * The previous load is cancelled first, so its scan and thumbnails stop and none of its
+   * results reach the new list or the image cache.
    */
   void loadPlaylist() {
+    this.loadToken.cancel();
+    stopSlideshow();
     ImageCache.getInstance().clearCache();
-    String source = Main.getProperty(Main.PROPERTY_SOURCE_DIRECTORY);
-    if (source.trim().length() == 0) {
+    this.cellRenderer.setOriginalSizes(Collections.emptyMap());
+    if (this.directoryWatcher != null) {
+      this.directoryWatcher.stop();
+      this.directoryWatcher = null;
+    }
+    SourceRoots roots = SourceRoots.fromProperties();
+    if (roots.isEmpty()) {
       this.btnHide.setEnabled(false);
       this.btnShow.setEnabled(false);
+      this.statusBar.setIcon(null);
       this.statusBar.setText("No source directory.");
       JOptionPane.showMessageDialog(this,
           "No image source directory is selected.\n" +
@@ -120,111 +202,440 @@ public class MainWindow extends JFrame {
     } else {
       btnHide.setEnabled(false);
       btnShow.setEnabled(false);
-      imageList.setModel(new DefaultListModel<>());
-      new ImageProcessor(source).execute();
+      GenerationToken token = startLoad(new PlaylistModel(roots));
+      new ImageProcessor(roots, token, this.directoryWatcher).execute();
+    }
+  }
+
+  /**
+   * Show the playlist saved in a snapshot of the last session right away, without scanning the
+   * source directories or decoding anything. The directories are then checked in the background,
+   * and any differences are applied to the list as if the directory watcher had reported them.
+   *
+   * @param session the snapshot.
+   * @return false if the snapshot is not of the current source directories; load the playlist instead.
+   */
+  boolean restoreSession(Session session) {
+    SourceRoots roots = SourceRoots.fromProperties();
+    if (!roots.equals(session.getRoots()) || !roots.exist()) {
+      return false;
+    }
+    long start = System.nanoTime();
+    List<File> files = session.getFiles();
+    PlaylistModel model = new PlaylistModel(roots, files);
+    this.cellRenderer.setOriginalSizes(session.getOriginalSizes());
+    GenerationToken token = startLoad(model);
+    boolean empty = model.isEmpty();
+    this.btnHide.setEnabled(!empty);
+    this.btnShow.setEnabled(!empty);
+    if (!empty) {
+      int index = Math.min(Math.max(0, session.getSelectedIndex()), model.size() - 1);
+      this.imageList.setSelectedIndex(index);
+      this.imageList.ensureIndexIsVisible(index);
+    }
+    this.statusBar.setText(roots + ": " + model.size() + " files");
+    requestVisibleThumbnails();
+    this.thumbnailLoader.request(files, false);
+    logger.info(String.format("Restored session of %d files in %d ms", model.size(),
+        (System.nanoTime() - start) / 1000000));
+    new SessionVerifier(session, token, this.directoryWatcher).execute();
+    return true;
+  }
+
+  /**
+   * Take a snapshot of the playlist, to restore at the next start.
+   *
+   * @return the snapshot, or null if there is no source directory.
+   */
+  Session captureSession() {
+    if (!(this.imageList.getModel() instanceof PlaylistModel)) {
+      return null;
+    }
+    PlaylistModel model = (PlaylistModel) this.imageList.getModel();
+    if (model.getRoots().isEmpty()) {
+      return null;
+    }
+    // the model copies its files under its lock, so this is safe from the shutdown hook
+    return Session.capture(model.getRoots(), model.getFiles(), this.imageList.getSelectedIndex(),
+        Main.getThumbnailCache());
+  }
+
+  /*
+   * Start a new load of the playlist: put the model in the list, and start loading thumbnails and
+   * watching the directories for it.
+   */
+  private GenerationToken startLoad(PlaylistModel model) {
+    GenerationToken token = new GenerationToken();
+    this.loadToken = token;
+    this.prefetcher.clear();
+    this.thumbnailLoader.reset(token);
+    Metrics.getInstance().loadStarted();
+    this.imageList.setModel(model);
+    if (Boolean.parseBoolean(Main.getProperty(Main.PROPERTY_SOURCE_WATCH))) {
+      watchSourceDirectories(model.getRoots(), token);
+    }
+    return token;
+  }
+
+  /*
+   * Start watching the source directories so changes can be applied to the list without a reload.
+   * The scan registers each folder with the watcher before reading it, so no change is missed;
+   * files the scan has already added are recognized when the changes are applied.
+   */
+  private void watchSourceDirectories(SourceRoots roots, GenerationToken token) {
+    this.directoryWatcher = new DirectoryWatcher(roots.isRecursive(),
+        Main.getIntProperty(Main.PROPERTY_SOURCE_WATCH_DEBOUNCE, 500),
+        paths -> SwingUtilities.invokeLater(() -> {
+          if (!token.isCancelled()) {
+            applyDirectoryChanges(paths);
+          }
+        }),
+        () -> SwingUtilities.invokeLater(this::loadPlaylist));
+    try {
+      this.directoryWatcher.start();
+    } catch (Exception e) {
+      logger.warn("Could not watch " + roots + "; use Refresh to pick up changes.", e);
+      this.directoryWatcher = null;
+    }
+  }
+
+  /*
+   * Apply a batch of changed paths from the directory watcher to the list model and caches.
+   * Each path is checked on disk: files that no longer exist are removed, files already
+   * in the list are treated as modified, and new files are inserted in sorted order. When
+   * subfolders are included, the images in a folder that no longer exists are removed too.
+   */
+  private void applyDirectoryChanges(Set<Path> paths) {
+    PlaylistModel model = (PlaylistModel) this.imageList.getModel();
+    List<File> changed = new ArrayList<>();
+    int added = 0;
+    int removed = 0;
+    for (Path path : paths) {
+      File file = path.toFile();
+      if (!isSupportedImage(file.getName())) {
+        if (model.getRoots().isRecursive() && !file.exists()) {
+          removed += removeFolder(model, path);
+        }
+        continue;
+      }
+      int index = model.indexOf(file);
+      if (!file.isFile()) {
+        if (index >= 0) {
+          model.remove(index);
+          ImageCache.getInstance().removeImage(file);
+          FingerprintIndex.getInstance().forget(file);
+          removed++;
+        }
+      } else if (index >= 0) {
+        ImageCache.getInstance().removeImage(file);
+        changed.add(file);
+      } else {
+        model.insert(file);
+        changed.add(file);
+        added++;
+      }
+    }
+    logger.info(String.format("Applied directory changes: %d added, %d modified, %d removed.",
+        added, changed.size() - added, removed));
+    if (model.isEmpty()) {
+      this.btnHide.setEnabled(false);
+      this.btnShow.setEnabled(false);
+    } else {
+      this.btnHide.setEnabled(true);
+      this.btnShow.setEnabled(true);
+      if (this.imageList.getSelectedIndex() < 0) {
+        this.imageList.setSelectedIndex(0);
+      }
+    }
+    this.statusBar.setText(model.getRoots() + ": " + model.size() + " files");
+    this.thumbnailLoader.request(changed, false);
+    requestVisibleThumbnails();
+    this.imageList.repaint();
+  }
+
+  /*
+   * Remove the images in a folder that was deleted or moved away, and in its subfolders.
+   */
+  private static int removeFolder(PlaylistModel model, Path folder) {
+    int removed = 0;
+    for (int index = model.size() - 1; index >= 0; index--) {
+      File file = model.get(index);
+      if (file.toPath().startsWith(folder)) {
+        model.remove(index);
+        ImageCache.getInstance().removeImage(file);
+        FingerprintIndex.getInstance().forget(file);
+        removed++;
+      }
     }
+    return removed;
+  }
+
+  /*
+   * Check the file name extension for a supported image type.
+   */
+  static boolean isSupportedImage(String name) {
+    String lower = name.toLowerCase();
+    return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
   }
 
 
   private void btnPlayActionPerformed() {
     this.displaySelectedImage();
+    if (this.slideshow.isRunning()) {
+      // carry on from the image the user picked
+      prepareNextSlide(this.imageList.getSelectedIndex());
+    }
+  }
+
+  private void menuItemSlideshowActionPerformed() {
+    if (this.menuItemSlideshow.isSelected()) {
+      startSlideshow();
+    } else {
+      stopSlideshow();
+    }
+  }
+
+  /*
+   * Show the selected image, then advance through the list every interval, starting over at the
+   * end of the list.
+   */
+  private void startSlideshow() {
+    if (this.imageList.getModel().getSize() == 0) {
+      this.menuItemSlideshow.setSelected(false);
+      return;
+    }
+    if (this.imageList.getSelectedIndex() < 0) {
+      this.imageList.setSelectedIndex(0);
+    }
+    this.menuItemSlideshow.setSelected(true);
+    displaySelectedImage();
+    this.slideshow.start(Math.max(1, Main.getIntProperty(Main.PROPERTY_SLIDESHOW_INTERVAL, 10)) * 1000L);
+    prepareNextSlide(this.imageList.getSelectedIndex());
+  }
+
+  private void stopSlideshow() {
+    this.slideshow.stop();
+    this.menuItemSlideshow.setSelected(false);
+  }
+
+  /*
+   * Have the slideshow render the image after the index into its back buffer.
+   */
+  private void prepareNextSlide(int index) {
+    int size = this.imageList.getModel().getSize();
+    if (size == 0) {
+      stopSlideshow();
+      return;
+    }
+    int next = (index + 1) % size;
+    this.slideshow.prepare(next, this.imageList.getModel().getElementAt(next), this.getTargetDevices());
+  }
+
+  /*
+   * Swap a slide from the slideshow's back buffer into the display windows, select it, and start
+   * preparing the one after it. Any image still being prepared by Show is superseded.
+   */
+  private void presentSlide(int index, File file, Map<GraphicsDevice, BufferedImage> images, long deadlineNanos) {
+    long generation = this.showGeneration.incrementAndGet();
+    if (this.pendingPreview != null) {
+      this.pendingPreview.cancel(true);
+    }
+    if (this.pendingRender != null) {
+      this.pendingRender.cancel(true);
+    }
+    if (images != null) {
+      // the slideshow records its own lateness; advances are not Show requests, so no latency sample
+      showOnDevices(images, 0);
+      this.finalShownGeneration = generation;
+    }
+    // the list may have changed while the slide was prepared
+    PlaylistModel model = (PlaylistModel) this.imageList.getModel();
+    int current = index < model.size() && file.equals(model.get(index)) ? index : model.indexOf(file);
+    if (current < 0) {
+      current = Math.min(index, model.size()) - 1;
+    } else {
+      this.imageList.setSelectedIndex(current);
+      this.imageList.ensureIndexIsVisible(current);
+    }
+    prepareNextSlide(current);
+  }
+
+  /*
+   * Find the device to display images on: the first device that is NOT displaying this window.
+   * If there is only one available monitor, that monitor is used.
+   */
+  private GraphicsDevice getTargetDevice() {
+    GraphicsDevice currentDevice = this.getGraphicsConfiguration().getDevice();
+    GraphicsDevice targetDevice = currentDevice;
+    for (GraphicsDevice device : this.devices) {
+      if (!device.equals(currentDevice)) {
+        targetDevice = device;
+        break;
+      }
+    }
+    return targetDevice;
+  }
+
+  /*
+   * Find the devices to display images on: the target device, and in mirror mode every other
+   * device that is not displaying this window as well.
+   */
+  private List<GraphicsDevice> getTargetDevices() {
+    List<GraphicsDevice> targets = new ArrayList<>();
+    targets.add(this.getTargetDevice());
+    if (this.menuItemMirror.isSelected()) {
+      GraphicsDevice currentDevice = this.getGraphicsConfiguration().getDevice();
+      for (GraphicsDevice device : this.devices) {
+        if (!device.equals(currentDevice) && !targets.contains(device)) {
+          targets.add(device);
+        }
+      }
+    }
+    return targets;
+  }
+
+  private void menuItemMirrorActionPerformed() {
+    Main.setProperty(Main.PROPERTY_DISPLAY_MIRROR, Boolean.toString(this.menuItemMirror.isSelected()));
+    Main.saveProperties();
+    boolean showing = false;
+    for (DisplayWindow window : this.displayWindows.values()) {
+      showing |= window.isVisible();
+    }
+    if (showing && this.imageList.getSelectedIndex() >= 0) {
+      // show the image that is on screen on the new set of displays
+      this.displaySelectedImage();
+      if (this.slideshow.isRunning()) {
+        prepareNextSlide(this.imageList.getSelectedIndex());
+      }
+    }
+  }
+
+  /*
+   * Start preparing the images around the selection for the target device.
+   */
+  private void prefetchAroundSelection() {
+    int index = this.imageList.getSelectedIndex();
+    if (index >= 0) {
+      this.prefetcher.update(this.imageList.getModel(), index, this.getTargetDevice().getDefaultConfiguration());
+    }
   }
 
   /*
-   * Display the currently selected image on the monitor that is NOT displaying this window.
+   * Display the currently selected image on the monitor that is NOT displaying this window, or in
+   * mirror mode on every monitor that is not displaying this window.
    * If there is only one available monitor, the image will be displayed on that monitor.
+   *
+   * If the render cache already has the image for every device, it is swapped into the long lived
+   * display windows immediately. Otherwise, in progressive mode, a quick preview made from the list
+   * thumbnail (or a subsampled decode if there is no thumbnail) is shown first, and the full
+   * quality image replaces it when it is ready. Showing another image cancels any
+   * work still pending for the previous one.
    */
   private void displaySelectedImage() {
     if (this.imageList.getModel().getSize() > 0) {
+      long requestNanos = System.nanoTime();
+      long generation = this.showGeneration.incrementAndGet();
       GraphicsDevice currentDevice = this.getGraphicsConfiguration().getDevice();
-      GraphicsDevice targetDevice = currentDevice;
-      for (GraphicsDevice device : this.devices) {
-        if (!device.equals(currentDevice)) {
-          targetDevice = device;
-          break;
-        }
+      List<GraphicsDevice> targetDevices = this.getTargetDevices();
+      StringBuilder targetIds = new StringBuilder();
+      for (GraphicsDevice device : targetDevices) {
+        targetIds.append(targetIds.length() == 0 ? "" : ", ").append(device.getIDstring());
       }
-      this.logger.info(String.format("Current device: %s; Target device: %s",
-          currentDevice.getIDstring(), targetDevice.getIDstring()));
+      this.logger.info(String.format("Current device: %s; Target devices: %s",
+          currentDevice.getIDstring(), targetIds));
       File f = this.imageList.getSelectedValue();
 
-      if (this.imageDisplayWindow != null) {
-        this.imageDisplayWindow.setVisible(false);
-        this.imageDisplayWindow.dispose();
+      if (this.pendingPreview != null) {
+        this.pendingPreview.cancel(true);
+      }
+      if (this.pendingRender != null) {
+        this.pendingRender.cancel(true);
+      }
+      Map<GraphicsDevice, BufferedImage> cached = this.displayRenderer.getCached(f, targetDevices);
+      if (cached != null) {
+        this.logger.info("Using cached render of " + f.getName());
+        showOnDevices(cached, requestNanos);
+        return;
       }
 
-      this.imageDisplayWindow = new JWindow(targetDevice.getDefaultConfiguration());
-      for (GraphicsConfiguration configuration : targetDevice.getConfigurations()) {
-        Rectangle gcBounds = configuration.getBounds();
-        int xoffs = gcBounds.x;
-        int yoffs = gcBounds.y;
-
+      boolean progressive = !"false".equals(Main.getProperty(Main.PROPERTY_DISPLAY_PROGRESSIVE));
+      if (progressive) {
+        Thumbnail thumbnail = ImageCache.getInstance().getImage(f);
+        this.pendingPreview = this.displayExecutor.submit(() -> {
+          try {
+            // stretching the list thumbnail takes a few milliseconds; decoding even a subsampled
+            // image is bounded by entropy decoding of the whole file
+            Map<GraphicsDevice, BufferedImage> previews =
+                this.displayRenderer.renderPreview(f, thumbnail, targetDevices);
+            showIfCurrent(generation, previews, requestNanos, true);
+          } catch (Exception e) {
+            this.logger.warn("Could not make preview of " + f.getAbsolutePath(), e);
+          }
+        });
+      }
+      this.pendingRender = this.renderExecutor.submit(() -> {
         try {
-          BufferedImage img = ImageIO.read(f);
-          int size;
-          Scalr.Mode mode;
-
-          this.logger.info(String.format("Target display size is %d x %d",
-              gcBounds.width, gcBounds.height));
-          this.logger.info(String.format("Image size is %d x %d",
-              img.getWidth(), img.getHeight()));
-
-          if (img.getWidth() > img.getHeight()) {
-            // landscape
-            size = gcBounds.width;
-            mode = Scalr.Mode.FIT_TO_WIDTH;
-            // calculate final image height
-            int finalHeight = (int)(img.getHeight() * ((float)gcBounds.width / img.getWidth()));
-            this.logger.info(String.format("Landscape: Resize to WIDTH %d would produce image %dx%d",
-                size, size, finalHeight));
-            if (finalHeight > gcBounds.height) {
-              this.logger.info("Too tall; will size to height instead.");
-              size = gcBounds.height;
-              mode = Scalr.Mode.FIT_TO_HEIGHT;
-            }
-          } else {
-            // portrait
-            size = gcBounds.height;
-            mode = Scalr.Mode.FIT_TO_HEIGHT;
-            // calculate final image width
-            int finalWidth = (int)(img.getWidth() * ((float)gcBounds.height / img.getHeight()));
-            this.logger.info(String.format("Portrait: Resize to HEIGHT %d would produce image %dx%d",
-                size, size, finalWidth));
-            if (finalWidth > gcBounds.width) {
-              this.logger.info("Too wide; will size to width instead.");
-              size = gcBounds.width;
-              mode = Scalr.Mode.FIT_TO_WIDTH;
-            }
+          if (this.showGeneration.get() != generation) {
+            return;
           }
-          this.logger.info(String.format("Scaling to %d pixels for mode %s",
-              size, mode == Scalr.Mode.FIT_TO_HEIGHT ? "FIT_TO_HEIGHT" : "FIT_TO_WIDTH"));
-          Image resized = Scalr.resize(img, mode, size);
-          this.logger.info(String.format("New size is %d x %d",
-              resized.getWidth(null), resized.getHeight(null)));
-
-          img.flush();
-
-          // center based on target display size, add the label, and display the window
-          int xPosition = (gcBounds.width - resized.getWidth(null)) / 2;
-          int yPosition = (gcBounds.height - resized.getHeight(null)) / 2;
-          this.imageDisplayWindow.setLocation(xoffs + xPosition, yoffs + yPosition);
-          this.imageDisplayWindow.add(new JLabel(new ImageIcon(resized)));
-          this.imageDisplayWindow.pack();
-          this.imageDisplayWindow.setVisible(true);
+          Map<GraphicsDevice, BufferedImage> renders = this.displayRenderer.render(f, targetDevices);
+          showIfCurrent(generation, renders, progressive ? 0 : requestNanos, false);
+        } catch (InterruptedException e) {
+          // another image was requested
         } catch (Exception e) {
-          JOptionPane.showMessageDialog(this,
+          this.logger.error("Error displaying image " + f.getAbsolutePath(), e);
+          SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
               "Error displaying image " + f.getAbsolutePath() + "\n\n" + e,
-              "Error Displaying Image", JOptionPane.ERROR_MESSAGE);
+              "Error Displaying Image", JOptionPane.ERROR_MESSAGE));
+        }
+      });
+    }
+  }
+
+  /*
+   * Swap images into the display windows, unless another image has been requested since.
+   * A preview is also skipped if the full quality image got there first.
+   */
+  private void showIfCurrent(long generation, Map<GraphicsDevice, BufferedImage> images, long requestNanos,
+                             boolean preview) {
+    SwingUtilities.invokeLater(() -> {
+      if (this.showGeneration.get() == generation && !(preview && this.finalShownGeneration == generation)) {
+        showOnDevices(images, requestNanos);
+        if (!preview) {
+          this.finalShownGeneration = generation;
         }
       }
+    });
+  }
+
+  /*
+   * Swap each image into the display window of its device, and hide the windows of devices that
+   * are not shown on any more. All the windows are changed in one pass on the EDT, so they repaint
+   * together.
+   */
+  private void showOnDevices(Map<GraphicsDevice, BufferedImage> images, long requestNanos) {
+    for (Map.Entry<GraphicsDevice, BufferedImage> entry : images.entrySet()) {
+      getDisplayWindow(entry.getKey()).showImage(entry.getValue(), requestNanos);
     }
+    for (Map.Entry<GraphicsDevice, DisplayWindow> entry : this.displayWindows.entrySet()) {
+      if (!images.containsKey(entry.getKey()) && entry.getValue().isVisible()) {
+        entry.getValue().hideImage();
+      }
+    }
+  }
+
+  /*
+   * Get the display window for a device, creating it the first time.
+   */
+  private DisplayWindow getDisplayWindow(GraphicsDevice device) {
+    return this.displayWindows.computeIfAbsent(device, DisplayWindow::new);
   }
 
   private void btnHideActionPerformed() {
-    if (this.imageDisplayWindow != null) {
-      this.imageDisplayWindow.setVisible(false);
-      this.imageDisplayWindow.dispose();
-      this.imageDisplayWindow = null;
+    stopSlideshow();
+    this.showGeneration.incrementAndGet();
+    for (DisplayWindow window : this.displayWindows.values()) {
+      window.hideImage();
     }
   }
 
@@ -232,72 +643,159 @@ public class MainWindow extends JFrame {
     this.loadPlaylist();
   }
 
-  /**
-   * Look at all the files in the source directory. If a file is a supported image type,
-   * create a cached thumbnail version and put the file in the list model.
+  /*
+   * Request thumbnails for the rows that are currently visible in the list.
+   */
+  private void requestVisibleThumbnails() {
+    int first = this.imageList.getFirstVisibleIndex();
+    int last = this.imageList.getLastVisibleIndex();
+    if (first >= 0) {
+      List<File> visible = new ArrayList<>();
+      for (int index = first; index <= last; index++) {
+        visible.add(this.imageList.getModel().getElementAt(index));
+      }
+      this.thumbnailLoader.request(visible, true);
+    }
+  }
+
+  /*
+   * Register a folder with the directory watcher, if there is one. Called on the scanning threads.
    */
-  class ImageProcessor extends SwingWorker<Void, File> {
-    private String source;
+  private void watchFolder(DirectoryWatcher watcher, Path folder) {
+    if (watcher != null) {
+      try {
+        watcher.register(folder);
+      } catch (IOException e) {
+        logger.warn("Could not watch " + folder + "; use Refresh to pick up changes.", e);
+      }
+    }
+  }
 
-    ImageProcessor(String source) {
-      this.source = source;
+  /**
+   * Scan the source directories, and add the supported images in each folder to the list model
+   * as soon as the folder has been read.
+   *
+   * Thumbnails are loaded later by the {@link ThumbnailLoader}: rows in view first, then the
+   * rest of the files in the background.
+   *
+   * If the load is cancelled the scan stops, and nothing more is added to the list.
+   */
+  class ImageProcessor extends SwingWorker<Void, List<File>> {
+    private SourceRoots roots;
+    private GenerationToken token;
+    private DirectoryWatcher watcher;
+
+    ImageProcessor(SourceRoots roots, GenerationToken token, DirectoryWatcher watcher) {
+      this.roots = roots;
+      this.token = token;
+      this.watcher = watcher;
     }
 
     @Override
     protected Void doInBackground() throws Exception {
       statusBar.setIcon(new ImageIcon(getClass().getResource("/spinner.gif")));
-      // list files and sort them
-      File[] files = new File(source).listFiles();
-      if (files == null) {
-        files = new File[0];
-      }
-      Arrays.sort(files, new FilenameComparator());
-      for (File f : files) {
-        logger.info("Got file " + f.getAbsolutePath());
-        String name = f.getName();
-        if (name.toLowerCase().endsWith(".jpg") ||
-            name.toLowerCase().endsWith(".jpeg") ||
-            name.toLowerCase().endsWith(".png")) {
-          logger.info("Creating thumbnail for " + name);
-          SwingUtilities.invokeLater(() -> statusBar.setText("Processing " + name + "..."));
-          File file = new File(source, name);
-          BufferedImage bufferedImage = ImageIO.read(file);
-          Thumbnail thumbnail = new Thumbnail(Scalr.resize(bufferedImage, Scalr.Mode.FIT_TO_WIDTH, 100),
-              bufferedImage.getWidth(), bufferedImage.getHeight());
-          ImageCache.getInstance().addImage(thumbnail, name);
-          bufferedImage.flush();
-          publish(file);
-        } else {
-          logger.info("Unsupported file type; ignoring.");
-        }
+      try {
+        DirectoryScanner.stream(roots, token, new DirectoryScanner.Listener() {
+          @Override
+          public void folderFound(Path folder) {
+            watchFolder(watcher, folder);
+          }
+
+          @Override
+          public void imagesFound(List<File> images) {
+            publish(images);
+          }
+        });
+      } catch (IOException e) {
+        logger.warn("Could not list files in " + roots, e);
+      } catch (CancellationException e) {
+        logger.debug("Stopped scanning " + roots + "; " + token + " was cancelled.");
       }
       return null;
     }
 
     @Override
-    protected void process(List<File> chunks) {
-      for (File file : chunks) {
-        ((DefaultListModel<File>)imageList.getModel()).addElement(file);
+    protected void process(List<List<File>> chunks) {
+      // process and done run on the EDT, as does the cancel, so a cancelled load adds nothing
+      if (token.isCancelled()) {
+        return;
+      }
+      PlaylistModel model = (PlaylistModel) imageList.getModel();
+      for (List<File> group : chunks) {
+        model.addGroup(group);
       }
+      statusBar.setText(roots + ": " + model.size() + " files so far");
+      if (imageList.getSelectedIndex() < 0 && !model.isEmpty()) {
+        imageList.setSelectedIndex(0);
+        btnHide.setEnabled(true);
+        btnShow.setEnabled(true);
+      }
+      requestVisibleThumbnails();
     }
 
     @Override
     protected void done() {
+      if (token.isCancelled()) {
+        return;
+      }
       statusBar.setIcon(null);
-      int size = ((DefaultListModel<File>)imageList.getModel()).size();
-      statusBar.setText(source + ": " + size + " files");
-      imageList.setSelectedIndex(0);
+      PlaylistModel model = (PlaylistModel) imageList.getModel();
+      int size = model.size();
+      statusBar.setText(roots + ": " + size + " files");
       if (size == 0) {
         btnHide.setEnabled(false);
         btnShow.setEnabled(false);
         JOptionPane.showMessageDialog(MainWindow.this,
-            "No valid image files were found in directory " + source +
+            "No valid image files were found in " + roots +
                 ".\nAdd some files and go to File -> Refresh to reload the list.",
             "No Files Found",
             JOptionPane.ERROR_MESSAGE);
       } else {
         btnHide.setEnabled(true);
         btnShow.setEnabled(true);
+        requestVisibleThumbnails();
+        thumbnailLoader.request(model.getFiles(), false);
+      }
+    }
+  }
+
+  /**
+   * Check the source directories against a restored session snapshot, and apply the differences
+   * to the list. If the directories cannot be read, the playlist is loaded again.
+   */
+  class SessionVerifier extends SwingWorker<Set<Path>, Void> {
+    private Session session;
+    private GenerationToken token;
+    private DirectoryWatcher watcher;
+
+    SessionVerifier(Session session, GenerationToken token, DirectoryWatcher watcher) {
+      this.session = session;
+      this.token = token;
+      this.watcher = watcher;
+    }
+
+    @Override
+    protected Set<Path> doInBackground() throws Exception {
+      statusBar.setIcon(new ImageIcon(getClass().getResource("/spinner.gif")));
+      return session.findChanges(DirectoryScanner.scan(session.getRoots(), token,
+          folder -> watchFolder(watcher, folder)));
+    }
+
+    @Override
+    protected void done() {
+      if (token.isCancelled()) {
+        return;
+      }
+      statusBar.setIcon(null);
+      try {
+        Set<Path> changes = get();
+        logger.info("Found " + changes.size() + " changes to " + session.getRoots() + " since the last session.");
+        if (!changes.isEmpty()) {
+          applyDirectoryChanges(changes);
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        logger.warn("Could not check " + session.getRoots() + " against the last session; loading it again.", e);
+        loadPlaylist();
       }
     }
   }
@@ -308,6 +806,9 @@ public class MainWindow extends JFrame {
     menu1 = new JMenu();
     menuItemSourceDirectory = new JMenuItem();
     menuItemRefresh = new JMenuItem();
+    menuItemSubfolders = new JCheckBoxMenuItem();
+    menuItemSlideshow = new JCheckBoxMenuItem();
+    menuItemMirror = new JCheckBoxMenuItem();
     menuItemQuit = new JMenuItem();
     scrollPane1 = new JScrollPane();
     imageList = new JList<>();
@@ -343,6 +844,22 @@ public class MainWindow extends JFrame {
         menuItemRefresh.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
         menuItemRefresh.addActionListener(e -> menuItemRefreshActionPerformed());
         menu1.add(menuItemRefresh);
+
+        //---- menuItemSubfolders ----
+        menuItemSubfolders.setText("Include Subfolders");
+        menuItemSubfolders.addActionListener(e -> menuItemSubfoldersActionPerformed());
+        menu1.add(menuItemSubfolders);
+
+        //---- menuItemSlideshow ----
+        menuItemSlideshow.setText("Slideshow");
+        menuItemSlideshow.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        menuItemSlideshow.addActionListener(e -> menuItemSlideshowActionPerformed());
+        menu1.add(menuItemSlideshow);
+
+        //---- menuItemMirror ----
+        menuItemMirror.setText("Mirror to All Displays");
+        menuItemMirror.addActionListener(e -> menuItemMirrorActionPerformed());
+        menu1.add(menuItemMirror);
         menu1.addSeparator();
 
         //---- menuItemQuit ----
@@ -403,6 +920,9 @@ public class MainWindow extends JFrame {
   private JMenu menu1;
   private JMenuItem menuItemSourceDirectory;
   private JMenuItem menuItemRefresh;
+  private JCheckBoxMenuItem menuItemSubfolders;
+  private JCheckBoxMenuItem menuItemSlideshow;
+  private JCheckBoxMenuItem menuItemMirror;
   private JMenuItem menuItemQuit;
   private JScrollPane scrollPane1;
   private JList<File> imageList;
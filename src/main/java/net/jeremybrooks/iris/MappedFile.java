@@ -0,0 +1,109 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped read only into memory.
+ *
+ * Pages are read from disk when they are first touched, so decoding only what is needed,
+ * such as an EXIF thumbnail near the start of a JPEG, only reads that part of the file.
+ *
+ * {@link #buffer()} returns an independent view of the mapping each time, so several streams
+ * on different threads can read the same file at once. The owner must not close the file
+ * until every view is finished with; closing releases the mapping immediately where the
+ * runtime allows it, rather than waiting for garbage collection, so the source file can be
+ * replaced or deleted.
+ */
+class MappedFile implements Closeable {
+  private static Logger logger = LogManager.getLogger();
+  private static final Object unsafe;
+  private static final Method invokeCleaner;
+
+  static {
+    Object u = null;
+    Method m = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      u = field.get(null);
+    } catch (Exception e) {
+      logger.info("Mapped files will be released by garbage collection.");
+      m = null;
+    }
+    unsafe = u;
+    invokeCleaner = m;
+  }
+
+  private final File file;
+  private MappedByteBuffer mapping;
+
+  private MappedFile(File file, MappedByteBuffer mapping) {
+    this.file = file;
+    this.mapping = mapping;
+  }
+
+  /**
+   * Map a file.
+   *
+   * @param file the file.
+   * @return the mapped file.
+   * @throws IOException if the file cannot be opened, or is too large to map.
+   */
+  static MappedFile map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(file.getAbsolutePath() + " is too large to map.");
+      }
+      // the mapping stays valid after the channel is closed
+      return new MappedFile(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * Get a view of the whole file with its own position and limit.
+   *
+   * @return a read only buffer positioned at the start of the file.
+   * @throws IOException if the file has been closed.
+   */
+  synchronized ByteBuffer buffer() throws IOException {
+    if (this.mapping == null) {
+      throw new IOException(this.file.getAbsolutePath() + " has been closed.");
+    }
+    return this.mapping.duplicate();
+  }
+
+  /**
+   * Size of the file when it was mapped.
+   *
+   * @return the size in bytes.
+   */
+  synchronized int size() {
+    return this.mapping == null ? 0 : this.mapping.capacity();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (this.mapping != null && invokeCleaner != null) {
+      try {
+        invokeCleaner.invoke(unsafe, this.mapping);
+      } catch (Exception e) {
+        logger.debug("Could not release mapping of " + this.file.getAbsolutePath(), e);
+      }
+    }
+    this.mapping = null;
+  }
+}
@@ -0,0 +1,93 @@
+package net.jeremybrooks.iris;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An ImageInputStream that reads directly from a byte buffer, usually a view of a
+ * {@link MappedFile}. Image readers get the bytes straight from the mapped pages instead of
+ * through the stream buffers and copies of a FileImageInputStream.
+ *
+ * Like any ImageInputStream, a stream must only be used by one thread at a time; give each
+ * thread its own stream on its own view of the file.
+ */
+class MappedImageInputStream extends ImageInputStreamImpl {
+  private final ByteBuffer buffer;
+  private boolean closed;
+
+  /**
+   * Create a stream over the remaining bytes of a buffer.
+   * The stream takes over the buffer and changes its position.
+   *
+   * @param buffer the buffer to read.
+   */
+  MappedImageInputStream(ByteBuffer buffer) {
+    this.buffer = buffer.slice();
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkClosed();
+    this.bitOffset = 0;
+    if (this.streamPos >= this.buffer.limit()) {
+      return -1;
+    }
+    try {
+      return this.buffer.get((int) this.streamPos++) & 0xFF;
+    } catch (InternalError e) {
+      throw fault(e);
+    }
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkClosed();
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    this.bitOffset = 0;
+    if (len == 0) {
+      return 0;
+    }
+    if (this.streamPos >= this.buffer.limit()) {
+      return -1;
+    }
+    int count = (int) Math.min(len, this.buffer.limit() - this.streamPos);
+    try {
+      this.buffer.position((int) this.streamPos);
+      this.buffer.get(b, off, count);
+    } catch (InternalError e) {
+      throw fault(e);
+    }
+    this.streamPos += count;
+    return count;
+  }
+
+  @Override
+  public long length() {
+    return this.buffer.limit();
+  }
+
+  /**
+   * Close the stream. Unlike other ImageInputStreams, closing twice is allowed, because
+   * ImageIO.read closes the stream it is given.
+   *
+   * @throws IOException never.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!this.closed) {
+      this.closed = true;
+      super.close();
+    }
+  }
+
+  /*
+   * Reading a mapped page fails with an InternalError if the file was truncated or a network
+   * share went away after it was mapped. Report it like any other read error.
+   */
+  private static IOException fault(InternalError e) {
+    return new IOException("Mapped file could not be read.", e);
+  }
+}
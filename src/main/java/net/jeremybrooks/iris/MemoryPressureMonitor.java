@@ -0,0 +1,65 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.NotificationEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches the heap memory pools and notifies listeners when a pool is still above a threshold
+ * after garbage collection, so caches can release memory before an OutOfMemoryError.
+ *
+ * The threshold is a percentage of each pool's maximum size, from the
+ * heap.threshold.percent property (default 80).
+ */
+class MemoryPressureMonitor {
+  private static Logger logger = LogManager.getLogger();
+  private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+  private static boolean started;
+
+  private MemoryPressureMonitor() {
+  }
+
+  /**
+   * Add a listener to run when memory is low.
+   * Listeners run on a JMX notification thread and should release memory quickly.
+   *
+   * @param listener the listener.
+   */
+  static synchronized void addListener(Runnable listener) {
+    listeners.add(listener);
+    if (!started) {
+      start();
+      started = true;
+    }
+  }
+
+  private static void start() {
+    int percent = Main.getIntProperty(Main.PROPERTY_HEAP_THRESHOLD_PERCENT, 80);
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      long max = pool.getUsage().getMax();
+      if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+        long threshold = max * percent / 100;
+        pool.setCollectionUsageThreshold(threshold);
+        logger.info(String.format("Watching memory pool %s; threshold %d of %d bytes.", pool.getName(), threshold, max));
+      }
+    }
+    NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+    emitter.addNotificationListener((notification, handback) -> {
+      logger.warn("Memory is low: " + notification.getMessage() + "; releasing cached images.");
+      for (Runnable listener : listeners) {
+        try {
+          listener.run();
+        } catch (Exception e) {
+          logger.warn("Error in memory pressure listener.", e);
+        }
+      }
+    }, notification -> MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()), null);
+  }
+}
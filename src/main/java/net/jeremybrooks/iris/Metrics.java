@@ -0,0 +1,216 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Performance metrics registry.
+ * Implemented as a singleton, and published as the JMX MBean net.jeremybrooks.iris:type=Metrics.
+ *
+ * Recording is lock free and safe from any thread.
+ */
+class Metrics implements MetricsMXBean {
+  static final String OBJECT_NAME = "net.jeremybrooks.iris:type=Metrics";
+
+  private Logger logger = LogManager.getLogger();
+  private final Histogram read = new Histogram();
+  private final Histogram decode = new Histogram();
+  private final Histogram scale = new Histogram();
+  private final Histogram publish = new Histogram();
+  private final Histogram render = new Histogram();
+  private final Histogram showLatency = new Histogram();
+  private final Histogram slideshowLateness = new Histogram();
+  private final LongAdder slideshowMissedDeadlines = new LongAdder();
+  private final LongAdder thumbnailsLoaded = new LongAdder();
+  private volatile long loadStartNanos = System.nanoTime();
+  private volatile long lastLoadedNanos;
+
+  private static class Holder {
+    private static final Metrics instance = new Metrics();
+  }
+
+  /**
+   * Get the metrics instance.
+   * @return metrics instance.
+   */
+  static Metrics getInstance() {
+    return Holder.instance;
+  }
+
+  private Metrics() {
+  }
+
+  /**
+   * Register the metrics with the platform MBean server.
+   * Metrics are still recorded if registration fails.
+   */
+  void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+      logger.info("Registered metrics MBean " + OBJECT_NAME);
+    } catch (Exception e) {
+      logger.warn("Could not register metrics MBean.", e);
+    }
+  }
+
+  void recordRead(long startNanos) {
+    this.read.recordSince(startNanos);
+  }
+
+  void recordDecode(long startNanos) {
+    this.decode.recordSince(startNanos);
+  }
+
+  void recordScale(long startNanos) {
+    this.scale.recordSince(startNanos);
+  }
+
+  void recordPublish(long startNanos) {
+    this.publish.recordSince(startNanos);
+  }
+
+  void recordRender(long startNanos) {
+    this.render.recordSince(startNanos);
+  }
+
+  void recordShowLatency(long requestNanos) {
+    this.showLatency.recordSince(requestNanos);
+  }
+
+  /**
+   * Record a slideshow advance when its slide is swapped into the display.
+   *
+   * @param deadlineNanos when the advance was due.
+   */
+  void recordSlideshowLateness(long deadlineNanos) {
+    this.slideshowLateness.recordSince(deadlineNanos);
+  }
+
+  /**
+   * Count a slideshow advance whose slide was not ready when it was due.
+   */
+  void slideshowDeadlineMissed() {
+    this.slideshowMissedDeadlines.increment();
+  }
+
+  /**
+   * Start counting thumbnail load throughput again, when a playlist is loaded.
+   */
+  void loadStarted() {
+    this.thumbnailsLoaded.reset();
+    this.loadStartNanos = System.nanoTime();
+    this.lastLoadedNanos = 0;
+  }
+
+  /**
+   * Count a thumbnail that has finished loading.
+   */
+  void thumbnailLoaded() {
+    this.thumbnailsLoaded.increment();
+    this.lastLoadedNanos = System.nanoTime();
+  }
+
+  @Override
+  public Timing getReadTiming() {
+    return this.read.snapshot();
+  }
+
+  @Override
+  public Timing getDecodeTiming() {
+    return this.decode.snapshot();
+  }
+
+  @Override
+  public Timing getScaleTiming() {
+    return this.scale.snapshot();
+  }
+
+  @Override
+  public Timing getPublishTiming() {
+    return this.publish.snapshot();
+  }
+
+  @Override
+  public Timing getRenderTiming() {
+    return this.render.snapshot();
+  }
+
+  @Override
+  public Timing getShowLatency() {
+    return this.showLatency.snapshot();
+  }
+
+  @Override
+  public Timing getSlideshowLateness() {
+    return this.slideshowLateness.snapshot();
+  }
+
+  @Override
+  public long getSlideshowMissedDeadlines() {
+    return this.slideshowMissedDeadlines.sum();
+  }
+
+  @Override
+  public long getThumbnailsLoaded() {
+    return this.thumbnailsLoaded.sum();
+  }
+
+  @Override
+  public double getFilesPerSecond() {
+    long loaded = this.thumbnailsLoaded.sum();
+    long elapsed = this.lastLoadedNanos - this.loadStartNanos;
+    if (loaded == 0 || elapsed <= 0) {
+      return 0;
+    }
+    return loaded * 1000000000.0 / elapsed;
+  }
+
+  @Override
+  public long getImageCacheHits() {
+    return ImageCache.getInstance().getHits();
+  }
+
+  @Override
+  public long getImageCacheMisses() {
+    return ImageCache.getInstance().getMisses();
+  }
+
+  @Override
+  public double getImageCacheHitRate() {
+    long hits = getImageCacheHits();
+    long lookups = hits + getImageCacheMisses();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  @Override
+  public long getImageCacheEvictions() {
+    return ImageCache.getInstance().getEvictions();
+  }
+
+  @Override
+  public long getImageCacheEntries() {
+    return ImageCache.getInstance().size();
+  }
+
+  @Override
+  public long getImageCacheBytes() {
+    return ImageCache.getInstance().getBytes();
+  }
+
+  @Override
+  public void resetTimings() {
+    this.read.reset();
+    this.decode.reset();
+    this.scale.reset();
+    this.publish.reset();
+    this.render.reset();
+    this.showLatency.reset();
+    this.slideshowLateness.reset();
+    this.slideshowMissedDeadlines.reset();
+    logger.info("Metrics timings reset.");
+  }
+}
@@ -0,0 +1,95 @@
+package net.jeremybrooks.iris;
+
+/**
+ * Performance metrics published over JMX, so a running show can be watched with jconsole.
+ * All timings are in milliseconds.
+ */
+public interface MetricsMXBean {
+
+  /**
+   * Time to open and map a source file for a thumbnail. The file is read as the decoder
+   * touches it, so most of the I/O is counted in the decode timing.
+   * @return read timing.
+   */
+  Timing getReadTiming();
+
+  /**
+   * Time to decode a thumbnail source image.
+   * @return decode timing.
+   */
+  Timing getDecodeTiming();
+
+  /**
+   * Time to scale a decoded image to a thumbnail.
+   * @return scale timing.
+   */
+  Timing getScaleTiming();
+
+  /**
+   * Time to add a finished thumbnail to the image cache and notify the list.
+   * @return publish timing.
+   */
+  Timing getPublishTiming();
+
+  /**
+   * Time to decode and scale an image for a display.
+   * @return render timing.
+   */
+  Timing getRenderTiming();
+
+  /**
+   * Time from the user asking for an image to the image being painted on the display.
+   * @return show latency.
+   */
+  Timing getShowLatency();
+
+  /**
+   * Time from each slideshow advance being due to its slide being swapped into the display.
+   * The count is the number of advances.
+   * @return slideshow lateness.
+   */
+  Timing getSlideshowLateness();
+
+  /**
+   * Slideshow advances whose slide was not ready in time; it is shown as soon as it is ready.
+   * @return number of missed deadlines.
+   */
+  long getSlideshowMissedDeadlines();
+
+  /**
+   * Thumbnails created or loaded from the disk cache since the playlist was loaded.
+   * @return number of thumbnails.
+   */
+  long getThumbnailsLoaded();
+
+  /**
+   * Thumbnail load rate since the playlist was loaded, up to the last thumbnail loaded.
+   * @return thumbnails per second.
+   */
+  double getFilesPerSecond();
+
+  long getImageCacheHits();
+
+  long getImageCacheMisses();
+
+  /**
+   * Fraction of image cache lookups that found a thumbnail.
+   * @return hit rate, from 0 to 1.
+   */
+  double getImageCacheHitRate();
+
+  long getImageCacheEvictions();
+
+  long getImageCacheEntries();
+
+  /**
+   * Memory held by the compressed thumbnails in the image cache.
+   * @return bytes held.
+   */
+  long getImageCacheBytes();
+
+  /**
+   * Clear all timings and the count of missed slideshow deadlines.
+   */
+  void resetTimings();
+}
@@ -0,0 +1,216 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.Dimension;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders an image for every display it is shown on.
+ *
+ * Displays of the same size share one render. Sizes that are not in the {@link RenderCache},
+ * the {@link Prefetcher}, or the renders saved by {@link Prewarm} are scaled in parallel from
+ * a single decode of the file at the resolution the largest of them needs, and the new renders
+ * are added to the render cache.
+ *
+ * Renders and previews are converted to the pixel layout of the first device of their size before
+ * they are cached or shown, so the display windows draw them with a plain copy; see
+ * {@link CompatibleImages}.
+ */
+class MultiDisplayRenderer {
+  private Logger logger = LogManager.getLogger();
+  private final Prefetcher prefetcher;
+  private final ExecutorService scalePool;
+
+  /**
+   * Create a renderer.
+   *
+   * @param prefetcher used to pick up images that are already being rendered.
+   */
+  MultiDisplayRenderer(Prefetcher prefetcher) {
+    this.prefetcher = prefetcher;
+    AtomicInteger count = new AtomicInteger();
+    this.scalePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+      Thread t = new Thread(r, "iris-display-scale-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Get the renders of a file for the devices if they are all in the render cache, without
+   * reading the file.
+   *
+   * @param file    the image file.
+   * @param devices the devices.
+   * @return the render for each device, or null if any of them is not cached.
+   */
+  Map<GraphicsDevice, BufferedImage> getCached(File file, List<GraphicsDevice> devices) {
+    Map<Dimension, BufferedImage> renders = new HashMap<>();
+    for (GraphicsConfiguration configuration : sizes(devices).values()) {
+      Rectangle bounds = configuration.getBounds();
+      BufferedImage image = RenderCache.getInstance().peek(file, bounds);
+      if (image == null) {
+        return null;
+      }
+      renders.put(bounds.getSize(), image);
+    }
+    return byDevice(devices, renders);
+  }
+
+  /**
+   * Render a file for the devices, waiting for renders the prefetcher is working on.
+   *
+   * @param file    the image file.
+   * @param devices the devices.
+   * @return the render for each device.
+   * @throws IOException          if the image cannot be read.
+   * @throws InterruptedException if interrupted before the renders are finished.
+   */
+  Map<GraphicsDevice, BufferedImage> render(File file, List<GraphicsDevice> devices)
+      throws IOException, InterruptedException {
+    Map<Dimension, BufferedImage> renders = new HashMap<>();
+    List<GraphicsConfiguration> missing = new ArrayList<>();
+    for (GraphicsConfiguration configuration : sizes(devices).values()) {
+      Rectangle bounds = configuration.getBounds();
+      BufferedImage image = this.prefetcher.get(file, bounds);
+      if (image == null) {
+        image = DisplayRenderer.getPrewarmed(file, bounds);
+        if (image != null) {
+          image = CompatibleImages.toCompatible(image, configuration);
+          RenderCache.getInstance().put(file, bounds, image);
+        }
+      }
+      if (image == null) {
+        missing.add(configuration);
+      } else {
+        renders.put(bounds.getSize(), image);
+      }
+    }
+    if (!missing.isEmpty()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long start = System.nanoTime();
+      List<Rectangle> missingBounds = new ArrayList<>();
+      for (GraphicsConfiguration configuration : missing) {
+        missingBounds.add(configuration.getBounds());
+      }
+      DecodedImage decoded = DisplayRenderer.decodeForDisplay(file, missingBounds);
+      try {
+        for (Map.Entry<GraphicsConfiguration, BufferedImage> entry : scale(decoded, missing).entrySet()) {
+          Rectangle bounds = entry.getKey().getBounds();
+          RenderCache.getInstance().put(file, bounds, entry.getValue());
+          renders.put(bounds.getSize(), entry.getValue());
+        }
+      } finally {
+        decoded.getImage().flush();
+      }
+      Metrics.getInstance().recordRender(start);
+      logger.info(String.format("Rendered %s for %d display sizes in %d ms", file.getName(), missing.size(),
+          (System.nanoTime() - start) / 1000000));
+    }
+    return byDevice(devices, renders);
+  }
+
+  /**
+   * Make quick previews of a file for the devices, one for each display size.
+   *
+   * @param file      the image file.
+   * @param thumbnail the list thumbnail of the file, or null to decode a preview from the file.
+   * @param devices   the devices.
+   * @return the preview for each device.
+   * @throws IOException if the image cannot be read.
+   */
+  Map<GraphicsDevice, BufferedImage> renderPreview(File file, Thumbnail thumbnail, List<GraphicsDevice> devices)
+      throws IOException {
+    Map<Dimension, BufferedImage> previews = new HashMap<>();
+    BufferedImage source = null;
+    for (GraphicsConfiguration configuration : sizes(devices).values()) {
+      Rectangle bounds = configuration.getBounds();
+      BufferedImage preview;
+      if (thumbnail != null) {
+        preview = DisplayRenderer.renderPreview(thumbnail.getImage(), thumbnail.getOriginalWidth(),
+            thumbnail.getOriginalHeight(), bounds);
+      } else if (source == null) {
+        // stretching takes a few milliseconds, so other sizes are made from the first preview
+        preview = DisplayRenderer.renderPreview(file, bounds);
+        source = preview;
+      } else {
+        preview = DisplayRenderer.renderPreview(source, source.getWidth(), source.getHeight(), bounds);
+      }
+      previews.put(bounds.getSize(), CompatibleImages.toCompatible(preview, configuration));
+    }
+    return byDevice(devices, previews);
+  }
+
+  /*
+   * Scale the image for each display, in parallel if there is more than one, and convert it to
+   * the pixel layout of the display.
+   */
+  private Map<GraphicsConfiguration, BufferedImage> scale(DecodedImage decoded, List<GraphicsConfiguration> displays)
+      throws InterruptedException, IOException {
+    Map<GraphicsConfiguration, BufferedImage> scaled = new LinkedHashMap<>();
+    if (displays.size() == 1) {
+      scaled.put(displays.get(0), scaleToFit(decoded, displays.get(0)));
+      return scaled;
+    }
+    List<Callable<BufferedImage>> tasks = new ArrayList<>();
+    for (GraphicsConfiguration configuration : displays) {
+      tasks.add(() -> scaleToFit(decoded, configuration));
+    }
+    List<Future<BufferedImage>> futures = this.scalePool.invokeAll(tasks);
+    for (int i = 0; i < displays.size(); i++) {
+      try {
+        scaled.put(displays.get(i), futures.get(i).get());
+      } catch (ExecutionException e) {
+        Rectangle bounds = displays.get(i).getBounds();
+        throw new IOException("Could not scale image for " + bounds.width + "x" + bounds.height, e.getCause());
+      }
+    }
+    return scaled;
+  }
+
+  private static BufferedImage scaleToFit(DecodedImage decoded, GraphicsConfiguration configuration) {
+    return CompatibleImages.toCompatible(DisplayRenderer.scaleToFit(decoded, configuration.getBounds()),
+        configuration);
+  }
+
+  /*
+   * The distinct display sizes, each with the configuration of the first device of that size.
+   */
+  private static Map<Dimension, GraphicsConfiguration> sizes(List<GraphicsDevice> devices) {
+    Map<Dimension, GraphicsConfiguration> sizes = new LinkedHashMap<>();
+    for (GraphicsDevice device : devices) {
+      GraphicsConfiguration configuration = device.getDefaultConfiguration();
+      sizes.putIfAbsent(configuration.getBounds().getSize(), configuration);
+    }
+    return sizes;
+  }
+
+  private static Map<GraphicsDevice, BufferedImage> byDevice(List<GraphicsDevice> devices,
+                                                            Map<Dimension, BufferedImage> renders) {
+    Map<GraphicsDevice, BufferedImage> images = new LinkedHashMap<>();
+    for (GraphicsDevice device : devices) {
+      images.put(device, renders.get(device.getDefaultConfiguration().getBounds().getSize()));
+    }
+    return images;
+  }
+}
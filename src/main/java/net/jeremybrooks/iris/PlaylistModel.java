@@ -0,0 +1,171 @@
+package net.jeremybrooks.iris;
+
+import javax.swing.AbstractListModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The playlist: the images in the source directories, in the order given by {@link SourceRoots},
+ * grouped by folder.
+ *
+ * Images are added a folder at a time as the scan reads them, and each folder is inserted where
+ * it belongs, so the list is in order while the scan is still running. The model is changed only
+ * on the event dispatch thread; {@link #getFiles()} may be called from any thread.
+ */
+class PlaylistModel extends AbstractListModel<File> {
+  private final SourceRoots roots;
+  private final List<File> files;
+
+  /**
+   * Create an empty playlist.
+   *
+   * @param roots the source directories.
+   */
+  PlaylistModel(SourceRoots roots) {
+    this(roots, Collections.emptyList());
+  }
+
+  /**
+   * Create a playlist of files that are already in order, such as those saved with the last session.
+   *
+   * @param roots the source directories.
+   * @param files the files, in playlist order.
+   */
+  PlaylistModel(SourceRoots roots, List<File> files) {
+    this.roots = roots;
+    this.files = new ArrayList<>(files);
+  }
+
+  SourceRoots getRoots() {
+    return this.roots;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return this.files.size();
+  }
+
+  @Override
+  public synchronized File getElementAt(int index) {
+    return this.files.get(index);
+  }
+
+  synchronized int size() {
+    return this.files.size();
+  }
+
+  synchronized boolean isEmpty() {
+    return this.files.isEmpty();
+  }
+
+  synchronized File get(int index) {
+    return this.files.get(index);
+  }
+
+  /**
+   * Find a file with a binary search.
+   *
+   * @param file the file.
+   * @return index of the file, or -1 if it is not in the playlist.
+   */
+  synchronized int indexOf(File file) {
+    int index = insertionIndex(this.roots.keyOf(file), true);
+    return index < this.files.size() && this.files.get(index).equals(file) ? index : -1;
+  }
+
+  /**
+   * Add the images in one folder.
+   *
+   * @param group the images, sorted, all in the same folder.
+   */
+  void addGroup(List<File> group) {
+    if (group.isEmpty()) {
+      return;
+    }
+    int index;
+    synchronized (this) {
+      index = insertionIndex(this.roots.keyOf(group.get(0)), false);
+      this.files.addAll(index, group);
+    }
+    fireIntervalAdded(this, index, index + group.size() - 1);
+  }
+
+  /**
+   * Add one image where it belongs.
+   *
+   * @param file the image.
+   * @return the index it was added at.
+   */
+  int insert(File file) {
+    int index;
+    synchronized (this) {
+      index = insertionIndex(this.roots.keyOf(file), false);
+      this.files.add(index, file);
+    }
+    fireIntervalAdded(this, index, index);
+    return index;
+  }
+
+  /**
+   * Remove an image.
+   *
+   * @param index index of the image.
+   * @return the image that was removed.
+   */
+  File remove(int index) {
+    File file;
+    synchronized (this) {
+      file = this.files.remove(index);
+    }
+    fireIntervalRemoved(this, index, index);
+    return file;
+  }
+
+  /**
+   * Copy the files in the playlist.
+   *
+   * @return the files, in playlist order.
+   */
+  synchronized List<File> getFiles() {
+    return new ArrayList<>(this.files);
+  }
+
+  /**
+   * Get the label of the folder that starts at an index, if the playlist can have more than one.
+   *
+   * @param index index of an image.
+   * @return the folder label, or null if the image is not the first in its folder or the
+   * playlist has a single folder.
+   */
+  synchronized String getGroupLabel(int index) {
+    if (this.roots.getRoots().size() < 2 && !this.roots.isRecursive()) {
+      return null;
+    }
+    File file = this.files.get(index);
+    if (index > 0 && file.getParentFile().equals(this.files.get(index - 1).getParentFile())) {
+      return null;
+    }
+    return this.roots.getFolderLabel(file);
+  }
+
+  /*
+   * Find the first index whose key is not less than the key (or greater than it, to add after
+   * equal keys) with a binary search.
+   */
+  private int insertionIndex(SourceRoots.Key key, boolean first) {
+    int low = 0;
+    int high = this.files.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int c = this.roots.keyOf(this.files.get(mid)).compareTo(key);
+      if (c < 0 || (c == 0 && !first)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,147 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.swing.ListModel;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the images around the current list selection in the background, scaled for the
+ * target display and converted to its pixel layout, and adds them to the {@link RenderCache}
+ * so they are ready when the user shows them.
+ *
+ * The selected image is rendered first, then the next and previous images alternately out to
+ * the configured distance. The number of images prepared is also limited so that their total
+ * size at the target display size stays under the memory limit.
+ */
+class Prefetcher {
+  private Logger logger = LogManager.getLogger();
+  private final int count;
+  private final long maxBytes;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "iris-prefetch");
+    t.setDaemon(true);
+    return t;
+  });
+  private final Map<File, Future<?>> renders = new HashMap<>();
+  private Rectangle bounds;
+
+  /**
+   * Create a new prefetcher.
+   *
+   * @param count    number of images to prepare on each side of the selection.
+   * @param maxBytes maximum memory to use for prepared images.
+   */
+  Prefetcher(int count, long maxBytes) {
+    this.count = Math.max(0, count);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Prepare the images around the selected index, and discard images that are no longer near it.
+   *
+   * @param model         the list model.
+   * @param selectedIndex the selected index.
+   * @param configuration configuration of the target display.
+   */
+  synchronized void update(ListModel<File> model, int selectedIndex, GraphicsConfiguration configuration) {
+    Rectangle gcBounds = configuration.getBounds();
+    if (!gcBounds.equals(this.bounds)) {
+      clear();
+      this.bounds = new Rectangle(gcBounds);
+    }
+    long imageBytes = 4L * gcBounds.width * gcBounds.height;
+    int limit = (int) Math.min(this.count * 2 + 1, this.maxBytes / imageBytes);
+    List<File> wanted = new ArrayList<>();
+    if (limit > 0 && selectedIndex >= 0 && selectedIndex < model.getSize()) {
+      wanted.add(model.getElementAt(selectedIndex));
+    }
+    for (int distance = 1; distance <= this.count && wanted.size() < limit; distance++) {
+      if (selectedIndex + distance < model.getSize()) {
+        wanted.add(model.getElementAt(selectedIndex + distance));
+      }
+      if (selectedIndex - distance >= 0 && wanted.size() < limit) {
+        wanted.add(model.getElementAt(selectedIndex - distance));
+      }
+    }
+
+    Iterator<Map.Entry<File, Future<?>>> iterator = this.renders.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<File, Future<?>> entry = iterator.next();
+      if (!wanted.contains(entry.getKey())) {
+        entry.getValue().cancel(false);
+        iterator.remove();
+      }
+    }
+    Rectangle target = this.bounds;
+    for (File file : wanted) {
+      if (!this.renders.containsKey(file)) {
+        this.renders.put(file, this.executor.submit(() -> {
+          if (RenderCache.getInstance().get(file, target) == null) {
+            RenderCache.getInstance().put(file, target,
+                CompatibleImages.toCompatible(DisplayRenderer.render(file, target), configuration));
+          }
+          return null;
+        }));
+      }
+    }
+  }
+
+  /**
+   * Get the render of a file for a display from the render cache.
+   * If the prefetcher is rendering the file for this display, wait for it to finish.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the target display.
+   * @return the render, or null if it is not cached or being prepared.
+   */
+  BufferedImage get(File file, Rectangle gcBounds) {
+    BufferedImage image = RenderCache.getInstance().get(file, gcBounds);
+    if (image != null) {
+      return image;
+    }
+    Future<?> future;
+    synchronized (this) {
+      if (!gcBounds.equals(this.bounds)) {
+        return null;
+      }
+      future = this.renders.get(file);
+    }
+    if (future == null) {
+      return null;
+    }
+    try {
+      future.get();
+      return RenderCache.getInstance().get(file, gcBounds);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (CancellationException | ExecutionException e) {
+      logger.warn("Prefetch of " + file.getAbsolutePath() + " failed.", e);
+    }
+    return null;
+  }
+
+  /**
+   * Cancel all pending renders.
+   */
+  synchronized void clear() {
+    for (Future<?> future : this.renders.values()) {
+      future.cancel(false);
+    }
+    this.renders.clear();
+  }
+}
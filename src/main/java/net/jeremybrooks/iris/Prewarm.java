@@ -0,0 +1,265 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless batch mode that fills the persistent caches before a show, so the user interface
+ * starts with every thumbnail and display render ready.
+ *
+ *   java -jar iris.jar --prewarm [directory] [--targets 1920x1080,3840x2160] [--workers n]
+ *
+ * Thumbnails go to the same {@link DiskCache} the user interface uses. Renders for each target
+ * display size go to a render cache of that size (see {@link Main#getRenderCache}), which
+ * {@link DisplayRenderer} checks before decoding. Each source image is decoded once and scaled
+ * for every target that needs it. The directory defaults to the configured source directories,
+ * and the number of workers to the number of processors; fewer render workers are used if the
+ * heap is too small to decode that many camera sized images at once.
+ *
+ * {@link Main} does not start a prewarm while another Iris process has the caches locked, and
+ * a user interface started during a prewarm only reads them.
+ */
+class Prewarm {
+  private static final String USAGE =
+      "Usage: --prewarm [directory] [--targets WIDTHxHEIGHT[,WIDTHxHEIGHT...]] [--workers n]";
+  // heap needed by one render worker: a decoded 45 megapixel image plus its render
+  private static final long BYTES_PER_RENDER_WORKER = 256L * 1024 * 1024;
+  private static final int SAVE_INTERVAL = 100;
+
+  private Logger logger = LogManager.getLogger();
+  private SourceRoots source;
+  private final List<Rectangle> targets = new ArrayList<>();
+  private int workers = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Fill the caches for the directory and targets in the arguments.
+   *
+   * @param args command line arguments.
+   * @return process exit status: 0 if all images were cached, 1 if some failed, 2 for bad arguments.
+   */
+  int run(String... args) {
+    try {
+      parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      return 2;
+    }
+    List<File> files;
+    try {
+      files = DirectoryScanner.scan(this.source);
+    } catch (IOException e) {
+      System.err.println("Cannot read directory " + this.source + ": " + e.getMessage());
+      return 2;
+    }
+    System.out.println(String.format("Prewarming %d images in %s with %d workers.",
+        files.size(), this.source, this.workers));
+
+    int failed = prewarmThumbnails(files);
+    if (this.targets.isEmpty()) {
+      System.out.println("No --targets given; display renders were not prepared.");
+    } else {
+      failed += prewarmRenders(files);
+    }
+    Metrics metrics = Metrics.getInstance();
+    System.out.println("Read:   " + metrics.getReadTiming());
+    System.out.println("Decode: " + metrics.getDecodeTiming());
+    System.out.println("Scale:  " + metrics.getScaleTiming());
+    System.out.println("Render: " + metrics.getRenderTiming());
+    return failed == 0 ? 0 : 1;
+  }
+
+  private void parse(String... args) {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+      if ("--prewarm".equals(arg)) {
+        if (hasValue) {
+          this.source = new SourceRoots(Collections.singletonList(new File(args[++i]).toPath()),
+              Boolean.parseBoolean(Main.getProperty(Main.PROPERTY_SOURCE_RECURSIVE)));
+        }
+      } else if ("--targets".equals(arg) && hasValue) {
+        for (String target : args[++i].split(",")) {
+          this.targets.add(parseTarget(target.trim()));
+        }
+      } else if ("--workers".equals(arg) && hasValue) {
+        try {
+          this.workers = Math.max(1, Integer.parseInt(args[++i]));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid number of workers: " + args[i]);
+        }
+      } else {
+        throw new IllegalArgumentException("Unrecognized argument: " + arg);
+      }
+    }
+    if (this.source == null) {
+      this.source = SourceRoots.fromProperties();
+      if (this.source.isEmpty()) {
+        throw new IllegalArgumentException("No directory given and no source directory is configured.");
+      }
+    }
+    for (Path root : this.source.getRoots()) {
+      if (!Files.isDirectory(root)) {
+        throw new IllegalArgumentException("Not a directory: " + root);
+      }
+    }
+  }
+
+  private static Rectangle parseTarget(String target) {
+    String[] size = target.toLowerCase().split("x");
+    try {
+      if (size.length == 2) {
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        if (width > 0 && height > 0) {
+          return new Rectangle(0, 0, width, height);
+        }
+      }
+    } catch (NumberFormatException e) {
+      // fall through to the error below
+    }
+    throw new IllegalArgumentException("Invalid target size: " + target);
+  }
+
+  /*
+   * Create the thumbnails that are not in the disk cache yet, using the thumbnail pipeline.
+   */
+  private int prewarmThumbnails(List<File> files) {
+    DiskCache diskCache = Main.getThumbnailCache();
+    ThumbnailPipeline pipeline = new ThumbnailPipeline(this.workers, diskCache);
+    long start = System.nanoTime();
+    List<CompletableFuture<Thumbnail>> futures = new ArrayList<>();
+    int cached = 0;
+    try {
+      for (File file : files) {
+        if (diskCache.contains(file)) {
+          cached++;
+        } else {
+          futures.add(pipeline.submit(file));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    int failed = 0;
+    for (CompletableFuture<Thumbnail> future : futures) {
+      try {
+        future.join();
+      } catch (Exception e) {
+        failed++;
+        logger.error("Could not create thumbnail.", e);
+      }
+    }
+    pipeline.shutdown();
+    FingerprintIndex.getInstance().save();
+    diskCache.save();
+    report("Thumbnails", files.size(), futures.size() - failed, cached, failed, start);
+    return failed;
+  }
+
+  /*
+   * Render the images for every target display that does not have them cached yet.
+   */
+  private int prewarmRenders(List<File> files) {
+    List<DiskCache> caches = new ArrayList<>();
+    for (Rectangle target : this.targets) {
+      caches.add(Main.getRenderCache(target.width, target.height, true));
+    }
+    int renderWorkers = (int) Math.max(1, Math.min(this.workers,
+        Runtime.getRuntime().maxMemory() / BYTES_PER_RENDER_WORKER));
+    if (renderWorkers < this.workers) {
+      System.out.println(String.format("Using %d render workers to fit in the heap; run with a larger -Xmx to use more.",
+          renderWorkers));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(renderWorkers, r -> {
+      Thread t = new Thread(r, "iris-prewarm");
+      t.setDaemon(true);
+      return t;
+    });
+    long start = System.nanoTime();
+    List<Future<Boolean>> futures = new ArrayList<>();
+    int cached = 0;
+    for (File file : files) {
+      List<Integer> needed = new ArrayList<>();
+      for (int i = 0; i < caches.size(); i++) {
+        if (!caches.get(i).contains(file)) {
+          needed.add(i);
+        }
+      }
+      if (needed.isEmpty()) {
+        cached++;
+      } else {
+        futures.add(executor.submit(() -> render(file, needed, caches)));
+      }
+    }
+    int failed = 0;
+    int done = 0;
+    for (Future<Boolean> future : futures) {
+      try {
+        if (!future.get()) {
+          failed++;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        failed++;
+        logger.error("Could not render image.", e.getCause());
+      }
+      // save as we go so an interrupted run keeps what it has done
+      if (++done % SAVE_INTERVAL == 0) {
+        FingerprintIndex.getInstance().save();
+        caches.forEach(DiskCache::save);
+      }
+    }
+    executor.shutdownNow();
+    FingerprintIndex.getInstance().save();
+    caches.forEach(DiskCache::save);
+    report("Renders for " + this.targets.size() + " display sizes", files.size(), futures.size() - failed,
+        cached, failed, start);
+    return failed;
+  }
+
+  private boolean render(File file, List<Integer> needed, List<DiskCache> caches) {
+    long start = System.nanoTime();
+    try {
+      List<Rectangle> bounds = new ArrayList<>();
+      for (int index : needed) {
+        bounds.add(this.targets.get(index));
+      }
+      DecodedImage image = DisplayRenderer.decodeForDisplay(file, bounds);
+      for (int index : needed) {
+        BufferedImage render = DisplayRenderer.scaleToFit(image, this.targets.get(index));
+        caches.get(index).putImage(file, render, image.getOriginalWidth(), image.getOriginalHeight());
+        render.flush();
+      }
+      image.getImage().flush();
+      Metrics.getInstance().recordRender(start);
+      return true;
+    } catch (IOException e) {
+      logger.error("Could not render " + file.getAbsolutePath(), e);
+      return false;
+    }
+  }
+
+  private static void report(String what, int files, int created, int cached, int failed, long startNanos) {
+    double seconds = (System.nanoTime() - startNanos) / 1000000000.0;
+    System.out.println(String.format("%s: %d files; %d created, %d already cached, %d failed in %.1f s (%.1f files/s)",
+        what, files, created, cached, failed, seconds, seconds > 0 ? created / seconds : 0));
+  }
+}
@@ -0,0 +1,54 @@
+package net.jeremybrooks.iris;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales with bilinear interpolation in steps that at most halve the size, so every source pixel
+ * contributes to the result even for large reductions. Scaling up, or down by less than half,
+ * takes a single step.
+ */
+class ProgressiveScalingEngine implements ScalingEngine {
+  // measured with ScalingBenchmark
+  private static final double NANOS_PER_STEP_PIXEL = 23.0;
+
+  @Override
+  public BufferedImage scale(BufferedImage image, int width, int height) {
+    int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    BufferedImage current = image;
+    do {
+      int stepWidth = Math.max(width, (current.getWidth() + 1) / 2);
+      int stepHeight = Math.max(height, (current.getHeight() + 1) / 2);
+      BufferedImage step = new BufferedImage(stepWidth, stepHeight, type);
+      Graphics2D g = step.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+      g.dispose();
+      if (current != image) {
+        current.flush();
+      }
+      current = step;
+    } while (current.getWidth() != width || current.getHeight() != height);
+    return current;
+  }
+
+  @Override
+  public long estimateNanos(int imageWidth, int imageHeight, int width, int height) {
+    // the cost of a step is in drawing its pixels, whatever size it is drawn from
+    long pixels = 0;
+    int stepWidth = imageWidth;
+    int stepHeight = imageHeight;
+    do {
+      stepWidth = Math.max(width, (stepWidth + 1) / 2);
+      stepHeight = Math.max(height, (stepHeight + 1) / 2);
+      pixels += (long) stepWidth * stepHeight;
+    } while (stepWidth != width || stepHeight != height);
+    return (long) (NANOS_PER_STEP_PIXEL * pixels);
+  }
+
+  @Override
+  public String toString() {
+    return "progressive";
+  }
+}
@@ -0,0 +1,142 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Cache of images scaled to fit a display.
+ * Implemented as a singleton.
+ *
+ * Entries are keyed by the {@link Fingerprint} of the file's content and by the size of the
+ * display, so copies of an image share one render, and a changed file or a different display
+ * never gets a stale render. The cache is
+ * limited by pixel memory; the limit is set in megabytes with the cache.render.megabytes
+ * property (default 512). Least recently used renders are evicted when the limit is reached,
+ * and the whole cache is released when the heap is running low.
+ */
+class RenderCache {
+  private Logger logger = LogManager.getLogger();
+  private final WeightedLruCache<Key, BufferedImage> cache;
+
+  private static class Holder {
+    private static final RenderCache instance = new RenderCache();
+  }
+
+  /**
+   * Get the render cache instance.
+   * @return render cache instance.
+   */
+  static RenderCache getInstance() {
+    return Holder.instance;
+  }
+
+  private RenderCache() {
+    long maxBytes = Main.getIntProperty(Main.PROPERTY_RENDER_CACHE_MEGABYTES, 512) * 1024L * 1024L;
+    this.cache = new WeightedLruCache<>("Render cache", maxBytes, RenderCache::pixelBytes);
+    MemoryPressureMonitor.addListener(() -> {
+      int evicted = this.cache.evictTo(0);
+      logger.warn("Released " + evicted + " renders from render cache.");
+    });
+  }
+
+  /**
+   * Get the render of a file for a display. The file is fingerprinted if it is new or has changed.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the display.
+   * @return the render, or null if it isn't cached.
+   */
+  BufferedImage get(File file, Rectangle gcBounds) {
+    try {
+      return get(FingerprintIndex.getInstance().get(file), gcBounds);
+    } catch (IOException e) {
+      logger.warn("Could not fingerprint " + file.getAbsolutePath(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Get the render of a file for a display without reading the file, for use on the event
+   * dispatch thread.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the display.
+   * @return the render, or null if it isn't cached or the file has not been fingerprinted since it changed.
+   */
+  BufferedImage peek(File file, Rectangle gcBounds) {
+    return get(FingerprintIndex.getInstance().getIfKnown(file), gcBounds);
+  }
+
+  private BufferedImage get(Fingerprint fingerprint, Rectangle gcBounds) {
+    return fingerprint == null ? null : this.cache.get(new Key(fingerprint, gcBounds));
+  }
+
+  /**
+   * Add the render of a file for a display.
+   *
+   * @param file     the image file.
+   * @param gcBounds bounds of the display.
+   * @param image    the render.
+   */
+  void put(File file, Rectangle gcBounds, BufferedImage image) {
+    try {
+      this.cache.put(new Key(FingerprintIndex.getInstance().get(file), gcBounds), image);
+    } catch (IOException e) {
+      logger.warn("Could not fingerprint " + file.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Remove all renders.
+   */
+  void clearCache() {
+    this.cache.clear();
+    this.logger.info("Render cache cleared.");
+  }
+
+  static long pixelBytes(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+  }
+
+  private static class Key {
+    private final Fingerprint fingerprint;
+    private final int width;
+    private final int height;
+
+    Key(Fingerprint fingerprint, Rectangle gcBounds) {
+      this.fingerprint = fingerprint;
+      this.width = gcBounds.width;
+      this.height = gcBounds.height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return width == key.width && height == key.height && fingerprint.equals(key.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(fingerprint, width, height);
+    }
+
+    @Override
+    public String toString() {
+      return fingerprint + "@" + width + "x" + height;
+    }
+  }
+}
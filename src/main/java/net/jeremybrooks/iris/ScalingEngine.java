@@ -0,0 +1,33 @@
+package net.jeremybrooks.iris;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A way of scaling an image to an exact size.
+ *
+ * Engines trade quality for speed differently, and each can estimate how long it will take so
+ * that {@link AdaptiveScalingEngine} can choose one for every image.
+ */
+interface ScalingEngine {
+  /**
+   * Scale an image. The image itself is not changed.
+   *
+   * @param image  the image.
+   * @param width  width of the scaled image.
+   * @param height height of the scaled image.
+   * @return the scaled image, of type {@link BufferedImage#TYPE_INT_RGB}, or
+   * {@link BufferedImage#TYPE_INT_ARGB} if the image has alpha.
+   */
+  BufferedImage scale(BufferedImage image, int width, int height);
+
+  /**
+   * Estimate how long scaling an image will take on this machine.
+   *
+   * @param imageWidth  width of the image.
+   * @param imageHeight height of the image.
+   * @param width       width of the scaled image.
+   * @param height      height of the scaled image.
+   * @return the estimated time in nanoseconds.
+   */
+  long estimateNanos(int imageWidth, int imageHeight, int width, int height);
+}
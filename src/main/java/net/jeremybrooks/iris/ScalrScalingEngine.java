@@ -0,0 +1,54 @@
+package net.jeremybrooks.iris;
+
+import org.imgscalr.Scalr;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales with imgscalr at its automatic quality, which is how Iris has always scaled images.
+ * imgscalr chooses by the size of the result: up to 800 pixels it reduces the image by a seventh
+ * at a time with bicubic interpolation, up to 1600 it scales in one bilinear step, and above that
+ * it takes the nearest pixel, which is very quick but aliases.
+ */
+class ScalrScalingEngine implements ScalingEngine {
+  // imgscalr's thresholds for its automatic quality
+  private static final int QUALITY_SIZE = 800;
+  private static final int BALANCED_SIZE = 1600;
+  // measured with ScalingBenchmark
+  private static final double NANOS_PER_BICUBIC_PIXEL = 10.0;
+  private static final double NANOS_PER_BILINEAR_PIXEL = 23.0;
+  private static final double NANOS_PER_NEAREST_PIXEL = 3.0;
+
+  @Override
+  public BufferedImage scale(BufferedImage image, int width, int height) {
+    return Scalr.resize(image, Scalr.Method.AUTOMATIC, Scalr.Mode.FIT_EXACT, width, height);
+  }
+
+  @Override
+  public long estimateNanos(int imageWidth, int imageHeight, int width, int height) {
+    int size = imageHeight <= imageWidth ? width : height;
+    if (size > BALANCED_SIZE) {
+      return (long) (NANOS_PER_NEAREST_PIXEL * width * height);
+    }
+    if (size > QUALITY_SIZE) {
+      return (long) (NANOS_PER_BILINEAR_PIXEL * width * height);
+    }
+    long pixels = (long) width * height;
+    int stepWidth = imageWidth - imageWidth / 7;
+    int stepHeight = imageHeight - imageHeight / 7;
+    while (stepWidth > width || stepHeight > height) {
+      pixels += (long) stepWidth * stepHeight;
+      if (stepWidth / 7 == 0 && stepHeight / 7 == 0) {
+        break;
+      }
+      stepWidth -= stepWidth / 7;
+      stepHeight -= stepHeight / 7;
+    }
+    return (long) (NANOS_PER_BICUBIC_PIXEL * pixels);
+  }
+
+  @Override
+  public String toString() {
+    return "scalr";
+  }
+}
@@ -0,0 +1,230 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of the playlist, saved at exit so the next start can show the list at once and check
+ * the source directories in the background.
+ *
+ * The snapshot holds the source directories and whether subdirectories are included, the
+ * selected index, and for each file in list order the root it is under and its path relative to
+ * that root, its size and modification time, and the original image dimensions. Thumbnails are
+ * not copied into the snapshot; they are found in the thumbnail {@link DiskCache}, which is keyed
+ * by the content fingerprint of each file, through the {@link FingerprintIndex} saved with it.
+ */
+final class Session {
+  private static final int MAGIC = 0x49524953; // "IRIS"
+  private static final int VERSION = 2;
+  private static Logger logger = LogManager.getLogger();
+
+  private final SourceRoots roots;
+  private final int selectedIndex;
+  private final List<Entry> entries;
+
+  private Session(SourceRoots roots, int selectedIndex, List<Entry> entries) {
+    this.roots = roots;
+    this.selectedIndex = selectedIndex;
+    this.entries = entries;
+  }
+
+  /**
+   * Take a snapshot of a playlist. This runs at exit, so nothing is read from disk: sizes and
+   * modification times are the ones recorded when each file was fingerprinted. Files that were
+   * never fingerprinted are recorded as unknown and checked again on the next start.
+   *
+   * @param roots          the source directories.
+   * @param files          the files in list order.
+   * @param selectedIndex  the selected index, or -1.
+   * @param thumbnailCache the thumbnail cache, for the original dimensions of the images.
+   * @return the snapshot.
+   */
+  static Session capture(SourceRoots roots, List<File> files, int selectedIndex, DiskCache thumbnailCache) {
+    List<Entry> entries = new ArrayList<>(files.size());
+    FingerprintIndex index = FingerprintIndex.getInstance();
+    for (File file : files) {
+      FingerprintIndex.Entry known = index.peekEntry(file);
+      if (known == null) {
+        entries.add(new Entry(file, -1, -1, 0, 0));
+        continue;
+      }
+      Dimension size = thumbnailCache.getOriginalSize(known.getFingerprint());
+      entries.add(new Entry(file, known.getSize(), known.getModified(),
+          size == null ? 0 : size.width, size == null ? 0 : size.height));
+    }
+    return new Session(roots, selectedIndex, entries);
+  }
+
+  /**
+   * Read a snapshot.
+   *
+   * @param file the snapshot file.
+   * @return the snapshot, or null if there is none or it cannot be read.
+   */
+  static Session load(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    long start = System.currentTimeMillis();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unrecognized session format.");
+      }
+      boolean recursive = in.readBoolean();
+      List<Path> paths = new ArrayList<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        paths.add(new File(in.readUTF()).toPath());
+      }
+      SourceRoots roots = new SourceRoots(paths, recursive);
+      int selectedIndex = in.readInt();
+      int count = in.readInt();
+      List<Entry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int root = in.readInt();
+        String path = in.readUTF();
+        File entry = root < 0 || root >= roots.getRoots().size()
+            ? new File(path) : roots.getRoots().get(root).resolve(path).toFile();
+        entries.add(new Entry(entry, in.readLong(), in.readLong(), in.readInt(), in.readInt()));
+      }
+      logger.info(String.format("Loaded session of %d files from %s in %d ms",
+          count, file.getAbsolutePath(), System.currentTimeMillis() - start));
+      return new Session(roots, selectedIndex, entries);
+    } catch (IOException e) {
+      logger.warn("Could not read session " + file.getAbsolutePath() + "; the playlist will be loaded.", e);
+      return null;
+    }
+  }
+
+  /**
+   * Write the snapshot, replacing the file only once it is completely written.
+   *
+   * @param file the snapshot file.
+   */
+  void save(File file) {
+    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+    List<Path> paths = this.roots.getRoots();
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(this.roots.isRecursive());
+        out.writeInt(paths.size());
+        for (Path root : paths) {
+          out.writeUTF(root.toString());
+        }
+        out.writeInt(this.selectedIndex);
+        out.writeInt(this.entries.size());
+        for (Entry entry : this.entries) {
+          int root = this.roots.indexOfRoot(entry.file);
+          out.writeInt(root);
+          out.writeUTF(root < 0 ? entry.file.getAbsolutePath()
+              : paths.get(root).relativize(entry.file.toPath().toAbsolutePath()).toString());
+          out.writeLong(entry.size);
+          out.writeLong(entry.modified);
+          out.writeInt(entry.width);
+          out.writeInt(entry.height);
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.info("Saved session of " + this.entries.size() + " files to " + file.getAbsolutePath());
+    } catch (IOException e) {
+      logger.error("Error saving session " + file.getAbsolutePath(), e);
+    }
+  }
+
+  SourceRoots getRoots() {
+    return this.roots;
+  }
+
+  int getSelectedIndex() {
+    return this.selectedIndex;
+  }
+
+  /**
+   * The files in list order.
+   *
+   * @return the files.
+   */
+  List<File> getFiles() {
+    List<File> files = new ArrayList<>(this.entries.size());
+    for (Entry entry : this.entries) {
+      files.add(entry.file);
+    }
+    return files;
+  }
+
+  /**
+   * The original dimensions of the images, for the files that had a thumbnail.
+   *
+   * @return dimensions by file.
+   */
+  Map<File, Dimension> getOriginalSizes() {
+    Map<File, Dimension> sizes = new HashMap<>();
+    for (Entry entry : this.entries) {
+      if (entry.width > 0 && entry.height > 0) {
+        sizes.put(entry.file, new Dimension(entry.width, entry.height));
+      }
+    }
+    return Collections.unmodifiableMap(sizes);
+  }
+
+  /**
+   * Compare the snapshot with the files in the source directories now.
+   *
+   * @param files the files in the source directories.
+   * @return paths of the files that were added, removed, or changed since the snapshot.
+   */
+  Set<Path> findChanges(List<File> files) {
+    Map<File, Entry> snapshot = new HashMap<>();
+    for (Entry entry : this.entries) {
+      snapshot.put(entry.file, entry);
+    }
+    Set<Path> changes = new HashSet<>();
+    for (File file : files) {
+      Entry entry = snapshot.remove(file);
+      if (entry == null || entry.size != file.length() || entry.modified != file.lastModified()) {
+        changes.add(file.toPath());
+      }
+    }
+    for (File removed : snapshot.keySet()) {
+      changes.add(removed.toPath());
+    }
+    return changes;
+  }
+
+  private static class Entry {
+    private final File file;
+    private final long size;
+    private final long modified;
+    private final int width;
+    private final int height;
+
+    Entry(File file, long size, long modified, int width, int height) {
+      this.file = file;
+      this.size = size;
+      this.modified = modified;
+      this.width = width;
+      this.height = height;
+    }
+  }
+}
@@ -12,7 +12,8 @@ public class ShutdownHook implements Runnable {
   }
 
   /**
-   * Save the window position and size at exit.
+   * Save the window position and size, the thumbnail cache and fingerprint indexes, and a
+   * snapshot of the playlist at exit.
    */
   public void run() {
     Main.setProperty(Main.PROPERTY_WINDOW_WIDTH, Integer.toString(mainWindow.getWidth()));
@@ -20,5 +21,12 @@ public class ShutdownHook implements Runnable {
     Main.setProperty(Main.PROPERTY_WINDOW_X, Integer.toString(mainWindow.getX()));
     Main.setProperty(Main.PROPERTY_WINDOW_Y, Integer.toString(mainWindow.getY()));
     Main.saveProperties();
+    // fingerprints first: the cache drops entries whose fingerprint is not in the saved index
+    FingerprintIndex.getInstance().save();
+    Main.getThumbnailCache().save();
+    Session session = mainWindow.captureSession();
+    if (session != null) {
+      session.save(Main.getSessionFile());
+    }
   }
 }
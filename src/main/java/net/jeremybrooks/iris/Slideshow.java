@@ -0,0 +1,212 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.swing.SwingUtilities;
+import java.awt.GraphicsDevice;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Advances through the playlist on a fixed schedule.
+ *
+ * The next image is rendered for the displays ahead of time and held in a back buffer, so each
+ * advance only swaps finished images into the display windows. Advances are scheduled at a fixed
+ * rate from the start of the slideshow, so time spent on one advance never pushes the later
+ * ones back.
+ *
+ * If the next image is not ready when its advance is due, the deadline is counted as missed
+ * in the {@link Metrics} and the image is shown as soon as it is ready. The lateness of every
+ * advance, from its deadline to the swap, is recorded as well.
+ */
+class Slideshow {
+  private Logger logger = LogManager.getLogger();
+  private final MultiDisplayRenderer displayRenderer;
+  private final Presenter presenter;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "iris-slideshow");
+    t.setDaemon(true);
+    return t;
+  });
+  private final ExecutorService renderer = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "iris-slideshow-render");
+    t.setDaemon(true);
+    return t;
+  });
+  // incremented when the slideshow starts or stops, so work for an earlier run is ignored
+  private long run;
+  private ScheduledFuture<?> advances;
+  private Future<?> pendingFrame;
+  private long startNanos;
+  private long intervalNanos;
+  private long advanceCount;
+  // the next image, ready to be swapped in
+  private Frame backBuffer;
+  // deadline of a missed advance that is waiting for its image, or 0
+  private long lateDeadline;
+
+  /**
+   * Swaps a slide into the displays. Called on the event dispatch thread.
+   */
+  interface Presenter {
+    /**
+     * Show a slide.
+     *
+     * @param index         index of the slide in the list.
+     * @param file          the slide.
+     * @param images        the slide rendered for each device, or null if it could not be rendered.
+     * @param deadlineNanos {@link System#nanoTime()} when the slide was due.
+     */
+    void present(int index, File file, Map<GraphicsDevice, BufferedImage> images, long deadlineNanos);
+  }
+
+  /**
+   * Create a slideshow. It does not advance until it is started.
+   *
+   * @param displayRenderer renders the slides.
+   * @param presenter       shows each slide when it is due.
+   */
+  Slideshow(MultiDisplayRenderer displayRenderer, Presenter presenter) {
+    this.displayRenderer = displayRenderer;
+    this.presenter = presenter;
+  }
+
+  /**
+   * Start advancing, or restart with a new interval. The first advance is one interval from now,
+   * and shows the image given to {@link #prepare(int, File, List)}.
+   *
+   * @param intervalMillis time each slide is shown.
+   */
+  synchronized void start(long intervalMillis) {
+    stop();
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis));
+    this.startNanos = System.nanoTime();
+    this.advances = this.scheduler.scheduleAtFixedRate(this::advance, this.intervalNanos, this.intervalNanos,
+        TimeUnit.NANOSECONDS);
+    logger.info("Slideshow started, advancing every " + intervalMillis + " ms.");
+  }
+
+  /**
+   * Stop advancing and let go of the back buffer.
+   */
+  synchronized void stop() {
+    this.run++;
+    if (this.advances != null) {
+      this.advances.cancel(false);
+      this.advances = null;
+      logger.info(String.format("Slideshow stopped after %d advances.", this.advanceCount));
+    }
+    if (this.pendingFrame != null) {
+      this.pendingFrame.cancel(true);
+      this.pendingFrame = null;
+    }
+    this.advanceCount = 0;
+    this.backBuffer = null;
+    this.lateDeadline = 0;
+  }
+
+  synchronized boolean isRunning() {
+    return this.advances != null;
+  }
+
+  /**
+   * Render the slide for the next advance into the back buffer, replacing any slide
+   * already there.
+   *
+   * @param index   index of the slide in the list.
+   * @param file    the slide.
+   * @param devices the devices it will be shown on.
+   */
+  synchronized void prepare(int index, File file, List<GraphicsDevice> devices) {
+    if (this.pendingFrame != null) {
+      this.pendingFrame.cancel(true);
+    }
+    this.backBuffer = null;
+    long frameRun = this.run;
+    List<GraphicsDevice> targets = new ArrayList<>(devices);
+    this.pendingFrame = this.renderer.submit(() -> {
+      Map<GraphicsDevice, BufferedImage> images = null;
+      try {
+        images = this.displayRenderer.render(file, targets);
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        logger.error("Could not render slide " + file.getAbsolutePath(), e);
+      }
+      if (!Thread.currentThread().isInterrupted()) {
+        ready(frameRun, new Frame(index, file, images));
+      }
+    });
+  }
+
+  /*
+   * Put a finished slide in the back buffer, or show it now if its advance is already late.
+   */
+  private synchronized void ready(long frameRun, Frame frame) {
+    if (frameRun != this.run) {
+      return;
+    }
+    this.pendingFrame = null;
+    if (this.lateDeadline != 0) {
+      present(frame, this.lateDeadline);
+      this.lateDeadline = 0;
+    } else {
+      this.backBuffer = frame;
+    }
+  }
+
+  /*
+   * Called by the scheduler when an advance is due. Deadlines are computed from the start time
+   * rather than the time of the call, so they stay on the schedule even if a call is delayed.
+   */
+  private synchronized void advance() {
+    long deadline = this.startNanos + ++this.advanceCount * this.intervalNanos;
+    if (this.backBuffer != null) {
+      present(this.backBuffer, deadline);
+      this.backBuffer = null;
+    } else {
+      Metrics.getInstance().slideshowDeadlineMissed();
+      if (this.lateDeadline == 0) {
+        this.lateDeadline = deadline;
+      }
+      logger.warn(String.format("Slideshow advance %d missed its deadline; the next slide is not ready.",
+          this.advanceCount));
+    }
+  }
+
+  private void present(Frame frame, long deadline) {
+    long frameRun = this.run;
+    SwingUtilities.invokeLater(() -> {
+      if (isCurrent(frameRun)) {
+        this.presenter.present(frame.index, frame.file, frame.images, deadline);
+        Metrics.getInstance().recordSlideshowLateness(deadline);
+      }
+    });
+  }
+
+  private synchronized boolean isCurrent(long frameRun) {
+    return frameRun == this.run;
+  }
+
+  private static class Frame {
+    private final int index;
+    private final File file;
+    private final Map<GraphicsDevice, BufferedImage> images;
+
+    Frame(int index, File file, Map<GraphicsDevice, BufferedImage> images) {
+      this.index = index;
+      this.file = file;
+      this.images = images;
+    }
+  }
+}
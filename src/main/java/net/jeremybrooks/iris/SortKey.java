@@ -0,0 +1,132 @@
+package net.jeremybrooks.iris;
+
+import java.util.Arrays;
+
+/**
+ * Sort key for an image file name, parsed once so sorting does no string work per comparison.
+ *
+ * Files are ordered first by the number between the first underscore and the extension, as
+ * cameras name them (IMG_0042.jpg); names without such a number count as 0, as they always have.
+ * Ties are broken by natural order: runs of digits compare by value and other characters compare
+ * without regard to case, so "slide 9" comes before "slide 10". The name itself is the last
+ * resort, so different names never compare equal.
+ *
+ * The natural order tokens are packed in a long array: one element per character, and for each
+ * run of digits a marker followed by its value. The marker sorts where '0' would.
+ */
+final class SortKey implements Comparable<SortKey> {
+  private static final long NUMBER = '0';
+
+  private final String name;
+  private final int number;
+  private final long[] tokens;
+
+  private SortKey(String name, int number, long[] tokens) {
+    this.name = name;
+    this.number = number;
+    this.tokens = tokens;
+  }
+
+  /**
+   * Parse the sort key for a file name.
+   *
+   * @param name the file name, without any directory.
+   * @return the sort key.
+   */
+  static SortKey of(String name) {
+    return new SortKey(name, cameraNumber(name), tokenize(name));
+  }
+
+  /**
+   * The file name this key was parsed from.
+   *
+   * @return the file name.
+   */
+  String getName() {
+    return this.name;
+  }
+
+  @Override
+  public int compareTo(SortKey o) {
+    if (this.number != o.number) {
+      return Integer.compare(this.number, o.number);
+    }
+    int length = Math.min(this.tokens.length, o.tokens.length);
+    for (int i = 0; i < length; i++) {
+      if (this.tokens[i] != o.tokens[i]) {
+        return Long.compare(this.tokens[i], o.tokens[i]);
+      }
+    }
+    if (this.tokens.length != o.tokens.length) {
+      return Integer.compare(this.tokens.length, o.tokens.length);
+    }
+    return this.name.compareTo(o.name);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SortKey && this.name.equals(((SortKey) o).name);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.name.hashCode();
+  }
+
+  /*
+   * The number between the first underscore and the last dot, with the same rules as
+   * Integer.parseInt, or 0 if there isn't one.
+   */
+  private static int cameraNumber(String name) {
+    int start = name.indexOf('_') + 1;
+    int end = name.lastIndexOf('.');
+    if (end <= start) {
+      return 0;
+    }
+    boolean negative = false;
+    int i = start;
+    char first = name.charAt(i);
+    if (first == '-' || first == '+') {
+      negative = first == '-';
+      if (++i == end) {
+        return 0;
+      }
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = Character.digit(name.charAt(i), 10);
+      if (digit < 0) {
+        return 0;
+      }
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1) {
+        return 0;
+      }
+    }
+    value = negative ? -value : value;
+    return value > Integer.MAX_VALUE ? 0 : (int) value;
+  }
+
+  private static long[] tokenize(String name) {
+    // a run of digits takes two elements, so there are at most one and a half per character
+    long[] tokens = new long[name.length() + (name.length() + 1) / 2];
+    int count = 0;
+    int i = 0;
+    while (i < name.length()) {
+      char c = name.charAt(i);
+      if (c >= '0' && c <= '9') {
+        long value = 0;
+        for (; i < name.length() && name.charAt(i) >= '0' && name.charAt(i) <= '9'; i++) {
+          // numbers too long for a long all sort last; the name breaks the tie
+          value = value > (Long.MAX_VALUE - 9) / 10 ? Long.MAX_VALUE : value * 10 + (name.charAt(i) - '0');
+        }
+        tokens[count++] = NUMBER;
+        tokens[count++] = value;
+      } else {
+        tokens[count++] = Character.toLowerCase(Character.toUpperCase(c));
+        i++;
+      }
+    }
+    return count == tokens.length ? tokens : Arrays.copyOf(tokens, count);
+  }
+}
@@ -0,0 +1,229 @@
+package net.jeremybrooks.iris;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The directories images are loaded from, and the order of the playlist made from them.
+ *
+ * The source.directory property holds one or more directories separated by the path separator
+ * (':' on macOS and Linux, ';' on Windows). If the source.recursive property is true, images in
+ * their subdirectories are included as well; hidden subdirectories are left out.
+ *
+ * The playlist is ordered by root, in the order they are configured; then by folder, so the
+ * images in each folder are together, with a folder's own images before those of its subfolders;
+ * then by the {@link SortKey} of the file name. Folder names are ordered by their sort keys too.
+ */
+final class SourceRoots {
+  private final List<Path> roots;
+  private final boolean recursive;
+
+  /**
+   * Create a source.
+   *
+   * @param roots     the root directories, in playlist order. Duplicates are ignored.
+   * @param recursive true to include the subdirectories of the roots.
+   */
+  SourceRoots(List<Path> roots, boolean recursive) {
+    List<Path> normalized = new ArrayList<>();
+    for (Path root : roots) {
+      Path path = root.toAbsolutePath().normalize();
+      if (!normalized.contains(path)) {
+        normalized.add(path);
+      }
+    }
+    this.roots = Collections.unmodifiableList(normalized);
+    this.recursive = recursive;
+  }
+
+  /**
+   * Get the source configured in the source.directory and source.recursive properties.
+   *
+   * @return the source; it has no roots if no source directory is configured.
+   */
+  static SourceRoots fromProperties() {
+    return parse(Main.getProperty(Main.PROPERTY_SOURCE_DIRECTORY),
+        Boolean.parseBoolean(Main.getProperty(Main.PROPERTY_SOURCE_RECURSIVE)));
+  }
+
+  /**
+   * Parse a list of directories separated by the path separator.
+   *
+   * @param value     the directories.
+   * @param recursive true to include the subdirectories of the roots.
+   * @return the source.
+   */
+  static SourceRoots parse(String value, boolean recursive) {
+    List<Path> roots = new ArrayList<>();
+    if (value != null) {
+      for (String directory : value.split(File.pathSeparator)) {
+        if (!directory.trim().isEmpty()) {
+          roots.add(new File(directory.trim()).toPath());
+        }
+      }
+    }
+    return new SourceRoots(roots, recursive);
+  }
+
+  List<Path> getRoots() {
+    return this.roots;
+  }
+
+  boolean isRecursive() {
+    return this.recursive;
+  }
+
+  boolean isEmpty() {
+    return this.roots.isEmpty();
+  }
+
+  /**
+   * Check that every root is a directory.
+   *
+   * @return true if there are roots and they are all directories.
+   */
+  boolean exist() {
+    if (this.roots.isEmpty()) {
+      return false;
+    }
+    for (Path root : this.roots) {
+      if (!Files.isDirectory(root)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the root a file is under. If roots are nested, the innermost one is used.
+   *
+   * @param file the file.
+   * @return index of the root, or -1 if the file is not under any of them.
+   */
+  int indexOfRoot(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    int index = -1;
+    for (int i = 0; i < this.roots.size(); i++) {
+      if (path.startsWith(this.roots.get(i))
+          && (index < 0 || this.roots.get(i).getNameCount() > this.roots.get(index).getNameCount())) {
+        index = i;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Get the playlist sort key of a file.
+   *
+   * @param file the file.
+   * @return the key. Files that are not under any root sort after all the others.
+   */
+  Key keyOf(File file) {
+    int root = indexOfRoot(file);
+    Path parent = file.toPath().toAbsolutePath().getParent();
+    SortKey[] folders = new SortKey[0];
+    if (root >= 0) {
+      Path relative = this.roots.get(root).relativize(parent);
+      if (!relative.toString().isEmpty()) {
+        folders = new SortKey[relative.getNameCount()];
+        for (int i = 0; i < folders.length; i++) {
+          folders[i] = SortKey.of(relative.getName(i).toString());
+        }
+      }
+    }
+    return new Key(root < 0 ? Integer.MAX_VALUE : root, folders, SortKey.of(file.getName()));
+  }
+
+  /**
+   * Describe the folder a file is in: the root's name, followed by the path below it.
+   *
+   * @param file the file.
+   * @return the folder label.
+   */
+  String getFolderLabel(File file) {
+    int root = indexOfRoot(file);
+    Path parent = file.toPath().toAbsolutePath().getParent();
+    if (root < 0) {
+      return parent.toString();
+    }
+    Path rootPath = this.roots.get(root);
+    Path name = rootPath.getFileName() == null ? rootPath : rootPath.getFileName();
+    String relative = rootPath.relativize(parent).toString();
+    return relative.isEmpty() ? name.toString() : name + File.separator + relative;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof SourceRoots)) {
+      return false;
+    }
+    SourceRoots other = (SourceRoots) o;
+    return this.recursive == other.recursive && this.roots.equals(other.roots);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * this.roots.hashCode() + (this.recursive ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Path root : this.roots) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(root);
+    }
+    return this.recursive ? sb.append(" and subfolders").toString() : sb.toString();
+  }
+
+  /**
+   * Where a file goes in the playlist.
+   */
+  static final class Key implements Comparable<Key> {
+    private final int root;
+    private final SortKey[] folders;
+    private final SortKey name;
+
+    private Key(int root, SortKey[] folders, SortKey name) {
+      this.root = root;
+      this.folders = folders;
+      this.name = name;
+    }
+
+    /**
+     * Whether another key is for a file in the same folder.
+     *
+     * @param o the other key.
+     * @return true if both files are in the same folder.
+     */
+    boolean isSameFolder(Key o) {
+      return this.root == o.root && compareFolders(o) == 0;
+    }
+
+    @Override
+    public int compareTo(Key o) {
+      if (this.root != o.root) {
+        return Integer.compare(this.root, o.root);
+      }
+      int folders = compareFolders(o);
+      return folders != 0 ? folders : this.name.compareTo(o.name);
+    }
+
+    private int compareFolders(Key o) {
+      int length = Math.min(this.folders.length, o.folders.length);
+      for (int i = 0; i < length; i++) {
+        int c = this.folders[i].compareTo(o.folders[i]);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return Integer.compare(this.folders.length, o.folders.length);
+    }
+  }
+}
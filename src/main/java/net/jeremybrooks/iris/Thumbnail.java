@@ -1,19 +1,138 @@
 package net.jeremybrooks.iris;
 
-import java.awt.Image;
-import javax.swing.ImageIcon;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.Icon;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 /**
- * An ImageIcon that knows the original size of the image it represents.
+ * A list thumbnail that knows the original size of the image it represents.
+ *
+ * To keep tens of thousands of thumbnails in memory, a thumbnail holds only its encoded bytes
+ * (JPEG, or PNG if it has transparency), a few kilobytes each. Pixels are decoded when the
+ * thumbnail is painted and kept in a small shared cache of recently painted thumbnails, so the
+ * visible rows of the list are only decoded once. Decoded pixels are converted to the layout of
+ * the screen, so painting a row is a plain copy; see {@link CompatibleImages}.
  */
-public class Thumbnail extends ImageIcon {
-  private int originalWidth;
-  private int originalHeight;
+public class Thumbnail implements Icon {
+  private static final float JPEG_QUALITY = 0.85f;
+  // object header, fields, and the byte array header
+  private static final int OVERHEAD_BYTES = 64;
+  private static final WeightedLruCache<Thumbnail, BufferedImage> decoded =
+      new WeightedLruCache<>("Decoded thumbnails", 16L * 1024 * 1024, RenderCache::pixelBytes);
 
-  public Thumbnail(Image image, int originalWidth, int originalHeight) {
-    super(image);
-    this.originalHeight = originalHeight;
+  static {
+    MemoryPressureMonitor.addListener(decoded::clear);
+  }
+
+  private final byte[] bytes;
+  private final int width;
+  private final int height;
+  private final int originalWidth;
+  private final int originalHeight;
+
+  private Thumbnail(byte[] bytes, int width, int height, int originalWidth, int originalHeight) {
+    this.bytes = bytes;
+    this.width = width;
+    this.height = height;
     this.originalWidth = originalWidth;
+    this.originalHeight = originalHeight;
+  }
+
+  /**
+   * Create a thumbnail by encoding an image.
+   *
+   * @param image          the thumbnail image.
+   * @param originalWidth  width of the image the thumbnail was made from.
+   * @param originalHeight height of the image the thumbnail was made from.
+   * @return the thumbnail.
+   * @throws IOException if the image cannot be encoded.
+   */
+  static Thumbnail fromImage(BufferedImage image, int originalWidth, int originalHeight) throws IOException {
+    String format = image.getColorModel().hasAlpha() ? "png" : "jpg";
+    byte[] bytes = ImageEncoder.encode(image, format, JPEG_QUALITY);
+    if (bytes == null) {
+      throw new IOException("No image writer for " + format);
+    }
+    return new Thumbnail(bytes, image.getWidth(), image.getHeight(), originalWidth, originalHeight);
+  }
+
+  /**
+   * Create a thumbnail from an encoded image. Only the image header is read.
+   *
+   * @param bytes          the encoded image; the array is kept, not copied.
+   * @param originalWidth  width of the image the thumbnail was made from.
+   * @param originalHeight height of the image the thumbnail was made from.
+   * @return the thumbnail.
+   * @throws IOException if the bytes are not a readable image.
+   */
+  static Thumbnail fromBytes(byte[] bytes, int originalWidth, int originalHeight) throws IOException {
+    try (ImageInputStream in = new MappedImageInputStream(ByteBuffer.wrap(bytes))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("No image reader for thumbnail.");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        return new Thumbnail(bytes, reader.getWidth(0), reader.getHeight(0), originalWidth, originalHeight);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Get the thumbnail pixels, decoding them if they are not in the cache of recently used thumbnails.
+   * The image has the pixel layout of the default screen.
+   *
+   * @return the thumbnail image.
+   * @throws UncheckedIOException if the image cannot be decoded.
+   */
+  public BufferedImage getImage() {
+    BufferedImage image = decoded.get(this);
+    if (image == null) {
+      try {
+        image = ImageIO.read(new ByteArrayInputStream(this.bytes));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (image == null) {
+        throw new UncheckedIOException(new IOException("No image reader for thumbnail."));
+      }
+      image = CompatibleImages.toCompatible(image);
+      decoded.put(this, image);
+    }
+    return image;
+  }
+
+  @Override
+  public void paintIcon(Component c, Graphics g, int x, int y) {
+    try {
+      g.drawImage(getImage(), x, y, null);
+    } catch (UncheckedIOException e) {
+      g.setColor(Color.lightGray);
+      g.drawRect(x, y, this.width - 1, this.height - 1);
+    }
+  }
+
+  @Override
+  public int getIconWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getIconHeight() {
+    return this.height;
   }
 
   /**
@@ -27,4 +146,16 @@ public class Thumbnail extends ImageIcon {
    * @return the original height.
    */
   public int getOriginalHeight() {return this.originalHeight;}
+
+  /**
+   * The encoded image. The array must not be changed.
+   * @return the encoded bytes.
+   */
+  byte[] getBytes() {return this.bytes;}
+
+  /**
+   * The heap used by this thumbnail, not counting decoded pixels.
+   * @return size in bytes.
+   */
+  public long getMemoryBytes() {return this.bytes.length + OVERHEAD_BYTES;}
 }
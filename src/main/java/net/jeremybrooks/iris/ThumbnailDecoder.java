@@ -0,0 +1,264 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+/**
+ * Decodes images just large enough to make a thumbnail of a given width.
+ *
+ * If the file has an embedded EXIF or JFIF thumbnail that is at least as wide as the target
+ * and has the same shape as the image, that thumbnail is used and the main image is not decoded.
+ * Otherwise the image is decoded with source subsampling so the decoded image is no less than
+ * twice the target width, which leaves enough detail for a good quality scale.
+ */
+class ThumbnailDecoder {
+  private static final int SOI = 0xD8;
+  private static final int SOS = 0xDA;
+  private static final int EOI = 0xD9;
+  private static final int APP1 = 0xE1;
+  private static final int TAG_JPEG_OFFSET = 0x0201;
+  private static final int TAG_JPEG_LENGTH = 0x0202;
+
+  private Logger logger = LogManager.getLogger();
+  private final int targetWidth;
+
+  /**
+   * Create a decoder for thumbnails of the given width.
+   *
+   * @param targetWidth width of the thumbnails that will be made from the decoded images.
+   */
+  ThumbnailDecoder(int targetWidth) {
+    this.targetWidth = targetWidth;
+  }
+
+  /**
+   * Decode an image from the contents of a file.
+   *
+   * @param file  the file, used for log and error messages.
+   * @param bytes contents of the file, usually a view of a {@link MappedFile}; only the parts
+   *              that are needed are read.
+   * @return the decoded image.
+   * @throws IOException if the image cannot be decoded.
+   */
+  DecodedImage decode(File file, ByteBuffer bytes) throws IOException {
+    return decode(file, bytes, GenerationToken.NONE);
+  }
+
+  /**
+   * Decode an image from the contents of a file, stopping as soon as possible if the token is
+   * cancelled. A decode in progress is aborted by the reader itself at its next progress update.
+   *
+   * @param file  the file, used for log and error messages.
+   * @param bytes contents of the file, usually a view of a {@link MappedFile}; only the parts
+   *              that are needed are read.
+   * @param token the load the image is decoded for.
+   * @return the decoded image.
+   * @throws IOException if the image cannot be decoded.
+   * @throws java.util.concurrent.CancellationException if the token was cancelled.
+   */
+  DecodedImage decode(File file, ByteBuffer bytes, GenerationToken token) throws IOException {
+    long start = System.nanoTime();
+    try (ImageInputStream in = new MappedImageInputStream(bytes.duplicate())) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("No image reader for " + file.getAbsolutePath());
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, false);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        String mode;
+        BufferedImage image = readExifThumbnail(bytes, width, height);
+        if (image != null) {
+          mode = "EXIF thumbnail";
+        } else {
+          image = readEmbeddedThumbnail(reader, width, height);
+          if (image != null) {
+            mode = "embedded thumbnail";
+          } else {
+            int subsampling = Math.max(1, width / (this.targetWidth * 2));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            token.throwIfCancelled();
+            reader.addIIOReadProgressListener(new AbortOnCancel(token));
+            image = reader.read(0, param);
+            token.throwIfCancelled();
+            mode = "subsampled 1/" + subsampling;
+          }
+        }
+        logger.info(String.format("Decoded %s (%dx%d) to %dx%d using %s in %d ms; %d KB of pixels instead of %d KB.",
+            file.getName(), width, height, image.getWidth(), image.getHeight(), mode,
+            (System.nanoTime() - start) / 1000000,
+            4L * image.getWidth() * image.getHeight() / 1024, 4L * width * height / 1024));
+        return new DecodedImage(image, width, height);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /*
+   * Use a JFIF thumbnail if the reader found one that is big enough.
+   */
+  private BufferedImage readEmbeddedThumbnail(ImageReader reader, int width, int height) {
+    try {
+      if (reader.readerSupportsThumbnails() && reader.getNumThumbnails(0) > 0) {
+        BufferedImage thumbnail = reader.readThumbnail(0, 0);
+        if (isUsable(thumbnail, width, height)) {
+          return thumbnail;
+        }
+      }
+    } catch (IOException e) {
+      logger.debug("Could not read embedded thumbnail.", e);
+    }
+    return null;
+  }
+
+  /*
+   * Find the JPEG thumbnail in IFD1 of an EXIF APP1 segment.
+   * The built in JPEG reader does not parse EXIF, so walk the markers and the TIFF structure here.
+   */
+  private BufferedImage readExifThumbnail(ByteBuffer bytes, int width, int height) {
+    try {
+      ByteBuffer buffer = bytes.slice();
+      if (buffer.remaining() < 4 || (buffer.get(0) & 0xFF) != 0xFF || (buffer.get(1) & 0xFF) != SOI) {
+        return null;
+      }
+      int position = 2;
+      while (position + 4 <= buffer.limit()) {
+        if ((buffer.get(position) & 0xFF) != 0xFF) {
+          return null;
+        }
+        int marker = buffer.get(position + 1) & 0xFF;
+        if (marker == 0xFF) {
+          position++;
+          continue;
+        }
+        if (marker == SOS || marker == EOI) {
+          return null;
+        }
+        int length = buffer.getShort(position + 2) & 0xFFFF;
+        int segmentStart = position + 4;
+        int segmentEnd = position + 2 + length;
+        if (marker == APP1 && segmentEnd <= buffer.limit() && isExif(buffer, segmentStart)) {
+          BufferedImage thumbnail = readIfd1Thumbnail(buffer, segmentStart + 6, segmentEnd);
+          return isUsable(thumbnail, width, height) ? thumbnail : null;
+        }
+        position = segmentEnd;
+      }
+    } catch (IndexOutOfBoundsException | IllegalArgumentException | IOException | InternalError e) {
+      logger.debug("Could not read EXIF thumbnail.", e);
+    }
+    return null;
+  }
+
+  private static boolean isExif(ByteBuffer buffer, int position) {
+    return buffer.get(position) == 'E' && buffer.get(position + 1) == 'x' && buffer.get(position + 2) == 'i' &&
+        buffer.get(position + 3) == 'f' && buffer.get(position + 4) == 0 && buffer.get(position + 5) == 0;
+  }
+
+  private static BufferedImage readIfd1Thumbnail(ByteBuffer segment, int tiffStart, int segmentEnd) throws IOException {
+    ByteBuffer tiff = segment.duplicate();
+    tiff.position(tiffStart);
+    tiff.limit(segmentEnd);
+    tiff = tiff.slice();
+    tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    int ifd0 = tiff.getInt(4);
+    int ifd0Entries = tiff.getShort(ifd0) & 0xFFFF;
+    int ifd1 = tiff.getInt(ifd0 + 2 + ifd0Entries * 12);
+    if (ifd1 == 0) {
+      return null;
+    }
+    int ifd1Entries = tiff.getShort(ifd1) & 0xFFFF;
+    int offset = -1;
+    int length = -1;
+    for (int i = 0; i < ifd1Entries; i++) {
+      int entry = ifd1 + 2 + i * 12;
+      int tag = tiff.getShort(entry) & 0xFFFF;
+      if (tag == TAG_JPEG_OFFSET) {
+        offset = tiff.getInt(entry + 8);
+      } else if (tag == TAG_JPEG_LENGTH) {
+        length = tiff.getInt(entry + 8);
+      }
+    }
+    // compared without adding, so large offsets from a corrupt file cannot overflow
+    if (offset <= 0 || length <= 0 || offset > tiff.limit() - length) {
+      return null;
+    }
+    tiff.position(offset);
+    tiff.limit(offset + length);
+    try (ImageInputStream in = new MappedImageInputStream(tiff)) {
+      return ImageIO.read(in);
+    }
+  }
+
+  /*
+   * A thumbnail is usable if it is at least the target width and has the same aspect ratio
+   * as the image. Some cameras pad the EXIF thumbnail with black bars to make it 4:3.
+   */
+  private boolean isUsable(BufferedImage thumbnail, int width, int height) {
+    if (thumbnail == null || thumbnail.getWidth() < this.targetWidth) {
+      return false;
+    }
+    double imageRatio = (double) width / height;
+    double thumbnailRatio = (double) thumbnail.getWidth() / thumbnail.getHeight();
+    return Math.abs(imageRatio - thumbnailRatio) < 0.02;
+  }
+
+  /*
+   * Aborts a read when its token is cancelled. ImageReader.abort only works on the thread that is
+   * reading (the JPEG reader throws IllegalStateException from any other thread), so the token is
+   * checked in the reader's progress updates rather than by the thread that cancels it.
+   */
+  private static class AbortOnCancel implements IIOReadProgressListener {
+    private final GenerationToken token;
+
+    AbortOnCancel(GenerationToken token) {
+      this.token = token;
+    }
+
+    @Override
+    public void imageProgress(ImageReader source, float percentageDone) {
+      if (this.token.isCancelled()) {
+        source.abort();
+      }
+    }
+
+    @Override
+    public void sequenceStarted(ImageReader source, int minIndex) {}
+
+    @Override
+    public void sequenceComplete(ImageReader source) {}
+
+    @Override
+    public void imageStarted(ImageReader source, int imageIndex) {}
+
+    @Override
+    public void imageComplete(ImageReader source) {}
+
+    @Override
+    public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+
+    @Override
+    public void thumbnailProgress(ImageReader source, float percentageDone) {}
+
+    @Override
+    public void thumbnailComplete(ImageReader source) {}
+
+    @Override
+    public void readAborted(ImageReader source) {}
+  }
+}
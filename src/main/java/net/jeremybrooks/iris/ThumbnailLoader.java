@@ -0,0 +1,206 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Loads thumbnails on demand, feeding requests to a {@link ThumbnailPipeline} in priority order.
+ *
+ * Requests for visible rows are handled first, newest request first, so the rows the user is
+ * looking at now are loaded before rows that were scrolled past. Visible thumbnails are added to
+ * the {@link ImageCache} and the listener is called.
+ *
+ * Background requests are handled when there is nothing visible to load. They only make sure the
+ * thumbnail is in the {@link DiskCache}, so they do not push visible thumbnails out of memory.
+ *
+ * New thumbnails and fingerprints are saved a few seconds after the last one is created, rather
+ * than each time the queue empties, since that happens after almost every scroll.
+ *
+ * Requests belong to the {@link GenerationToken} given to the last {@link #reset(GenerationToken)}.
+ * Once that token is cancelled its requests are skipped, its thumbnails in the pipeline are
+ * stopped, and nothing it loads reaches the image cache or the listener.
+ */
+class ThumbnailLoader {
+  private static final long SAVE_DELAY_SECONDS = 5;
+
+  private Logger logger = LogManager.getLogger();
+  private final ThumbnailPipeline pipeline;
+  private final DiskCache diskCache;
+  private final Consumer<File> listener;
+  private final PriorityBlockingQueue<Request> queue = new PriorityBlockingQueue<>();
+  private final Map<File, InFlight> inFlight = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private volatile GenerationToken token = GenerationToken.NONE;
+  private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "iris-cache-save");
+    t.setDaemon(true);
+    return t;
+  });
+  private ScheduledFuture<?> pendingSave;
+
+  /**
+   * Create a new loader and start its scheduler thread.
+   *
+   * @param pipeline  the pipeline used to create thumbnails.
+   * @param diskCache persistent thumbnail cache.
+   * @param listener  called on a worker thread when a visible thumbnail has been added to the image cache.
+   */
+  ThumbnailLoader(ThumbnailPipeline pipeline, DiskCache diskCache, Consumer<File> listener) {
+    this.pipeline = pipeline;
+    this.diskCache = diskCache;
+    this.listener = listener;
+    Thread scheduler = new Thread(this::schedule, "iris-thumbnail-scheduler");
+    scheduler.setDaemon(true);
+    scheduler.start();
+  }
+
+  /**
+   * Request thumbnails for files.
+   *
+   * @param files   the files, in the order they should be loaded.
+   * @param visible true if the files are visible now; false to load them in the background.
+   */
+  void request(List<File> files, boolean visible) {
+    GenerationToken requestToken = this.token;
+    long requestGeneration = this.generation.incrementAndGet();
+    int index = 0;
+    for (File file : files) {
+      this.queue.add(new Request(file, visible, requestToken, requestGeneration, index++));
+    }
+  }
+
+  /**
+   * Drop all pending requests and start taking requests for a new load. Thumbnails still in the
+   * pipeline for the previous load stop when its token is cancelled.
+   *
+   * @param token the load that new requests belong to.
+   */
+  void reset(GenerationToken token) {
+    this.token = token;
+    this.queue.clear();
+    this.inFlight.clear();
+  }
+
+  private void schedule() {
+    while (true) {
+      try {
+        Request request = this.queue.take();
+        File file = request.file;
+        GenerationToken requestToken = request.token;
+        if (requestToken.isCancelled()) {
+          continue;
+        }
+        InFlight current = this.inFlight.get(file);
+        if (current != null) {
+          if (request.visible) {
+            current.visible = true;
+          }
+          continue;
+        }
+        if (request.visible ? ImageCache.getInstance().contains(file) : this.diskCache.contains(file)) {
+          continue;
+        }
+        InFlight pending = new InFlight(request.visible);
+        this.inFlight.put(file, pending);
+        this.pipeline.submit(file, requestToken).whenComplete((thumbnail, throwable) -> {
+          this.inFlight.remove(file, pending);
+          if (throwable != null) {
+            if (throwable instanceof CancellationException || throwable.getCause() instanceof CancellationException) {
+              logger.debug("Stopped loading thumbnail for " + file.getAbsolutePath() + "; " + requestToken + " was cancelled.");
+            } else {
+              logger.error("Could not create thumbnail for " + file.getAbsolutePath(), throwable);
+            }
+            return;
+          }
+          Metrics.getInstance().thumbnailLoaded();
+          scheduleSave();
+          if (pending.visible) {
+            long start = System.nanoTime();
+            // the image cache is cleared when the token is cancelled, so add to it only if the load is still current
+            if (requestToken.runIfCurrent(() -> {
+              ImageCache.getInstance().addImage(thumbnail, file);
+              this.listener.accept(file);
+            })) {
+              Metrics.getInstance().recordPublish(start);
+            }
+          }
+        });
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        logger.error("Error scheduling thumbnail.", e);
+      }
+    }
+  }
+
+  /*
+   * Save the caches SAVE_DELAY_SECONDS after the last thumbnail, replacing a save that has not
+   * started yet.
+   */
+  private synchronized void scheduleSave() {
+    if (this.pendingSave != null) {
+      this.pendingSave.cancel(false);
+    }
+    this.pendingSave = this.saver.schedule(() -> {
+      FingerprintIndex.getInstance().save();
+      this.diskCache.save();
+    }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /*
+   * A file in the pipeline; visible is set if the thumbnail is wanted in memory.
+   */
+  private static class InFlight {
+    private volatile boolean visible;
+
+    InFlight(boolean visible) {
+      this.visible = visible;
+    }
+  }
+
+  private static class Request implements Comparable<Request> {
+    private final File file;
+    private final boolean visible;
+    private final GenerationToken token;
+    private final long generation;
+    private final int index;
+
+    Request(File file, boolean visible, GenerationToken token, long generation, int index) {
+      this.file = file;
+      this.visible = visible;
+      this.token = token;
+      this.generation = generation;
+      this.index = index;
+    }
+
+    /*
+     * Visible before background; for visible requests, newest first; then in request order.
+     */
+    @Override
+    public int compareTo(Request o) {
+      if (this.visible != o.visible) {
+        return this.visible ? -1 : 1;
+      }
+      if (this.visible && this.generation != o.generation) {
+        return Long.compare(o.generation, this.generation);
+      }
+      if (this.generation != o.generation) {
+        return Long.compare(this.generation, o.generation);
+      }
+      return Integer.compare(this.index, o.index);
+    }
+  }
+}
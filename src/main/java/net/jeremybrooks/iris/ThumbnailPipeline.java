@@ -0,0 +1,228 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates thumbnails in three stages: map the file, decode the image with a
+ * {@link ThumbnailDecoder}, and scale it. The file is mapped rather than read, so the decoder
+ * only reads the parts of it that it needs.
+ * Each stage runs on its own fixed size pool of worker threads, so file I/O, decoding, and
+ * scaling for different files can overlap.
+ *
+ * Thumbnails found in the {@link DiskCache} are returned without decoding the source file, and
+ * newly created thumbnails are added to it. The disk cache is keyed by content, so a copy of an
+ * image that already has a thumbnail is only fingerprinted, and copies submitted while the
+ * thumbnail is being created wait for it rather than decoding the image again.
+ *
+ * The stage queues are bounded. No more than four files per worker are in flight at
+ * once; {@link #submit(File)} blocks until there is room for another file.
+ *
+ * Work submitted with a {@link GenerationToken} stops when the token is cancelled: each stage
+ * checks the token before it starts, a decode in progress is aborted, and thumbnails finished
+ * after the token is cancelled are not added to the disk cache.
+ */
+class ThumbnailPipeline {
+  /** Thumbnails are scaled to fit in a square of this size. */
+  static final int THUMBNAIL_SIZE = 100;
+
+  private Logger logger = LogManager.getLogger();
+  private final ThreadPoolExecutor readPool;
+  private final ThreadPoolExecutor decodePool;
+  private final ThreadPoolExecutor scalePool;
+  private final int windowSize;
+  private final DiskCache diskCache;
+  private final Semaphore window;
+  private final ThumbnailDecoder decoder = new ThumbnailDecoder(THUMBNAIL_SIZE);
+  private final Map<Fingerprint, Creation> creating = new ConcurrentHashMap<>();
+
+  /**
+   * Create a new pipeline.
+   *
+   * @param workers   number of worker threads for each stage.
+   * @param diskCache persistent cache to check before creating a thumbnail.
+   */
+  ThumbnailPipeline(int workers, DiskCache diskCache) {
+    this.diskCache = diskCache;
+    int threads = Math.max(1, workers);
+    this.windowSize = threads * 4;
+    this.window = new Semaphore(this.windowSize);
+    this.readPool = createPool("read", threads);
+    this.decodePool = createPool("decode", threads);
+    this.scalePool = createPool("scale", threads);
+    logger.info("Thumbnail pipeline started with " + threads + " workers per stage.");
+  }
+
+  private ThreadPoolExecutor createPool(String stage, int threads) {
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread t = new Thread(r, "iris-" + stage + "-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(this.windowSize), factory);
+  }
+
+  /**
+   * Start creating a thumbnail for the file.
+   * If the pipeline is full, this blocks until another file has finished.
+   *
+   * @param file the image file.
+   * @return future that completes with the thumbnail, or exceptionally if the file could not be read.
+   * @throws InterruptedException if interrupted while waiting for room in the pipeline.
+   */
+  CompletableFuture<Thumbnail> submit(File file) throws InterruptedException {
+    return submit(file, GenerationToken.NONE);
+  }
+
+  /**
+   * Start creating a thumbnail for the file as part of a playlist load.
+   * If the pipeline is full, this blocks until another file has finished.
+   *
+   * @param file  the image file.
+   * @param token the load the thumbnail is for.
+   * @return future that completes with the thumbnail, or exceptionally if the file could not be
+   * read or the token was cancelled.
+   * @throws InterruptedException if interrupted while waiting for room in the pipeline.
+   */
+  CompletableFuture<Thumbnail> submit(File file, GenerationToken token) throws InterruptedException {
+    this.window.acquire();
+    CompletableFuture<Thumbnail> future = CompletableFuture.supplyAsync(() -> {
+          token.throwIfCancelled();
+          return fingerprint(file);
+        }, this.readPool)
+        .thenCompose(fingerprint -> {
+          Thumbnail cached = this.diskCache.get(file);
+          return cached == null ? createOnce(file, fingerprint, token) : CompletableFuture.completedFuture(cached);
+        });
+    future.whenComplete((thumbnail, throwable) -> this.window.release());
+    return future;
+  }
+
+  private Fingerprint fingerprint(File file) {
+    try {
+      return FingerprintIndex.getInstance().get(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /*
+   * Create a thumbnail, unless one is already being created for a copy of the file in a load
+   * that has not been cancelled; then wait for that one.
+   */
+  private CompletableFuture<Thumbnail> createOnce(File file, Fingerprint fingerprint, GenerationToken token) {
+    Creation creation = new Creation(token);
+    Creation current = this.creating.compute(fingerprint,
+        (key, existing) -> existing != null && !existing.token.isCancelled() ? existing : creation);
+    if (current != creation) {
+      logger.debug("Waiting for the thumbnail of a copy of " + file.getAbsolutePath());
+      return current.future;
+    }
+    create(file, token).whenComplete((thumbnail, throwable) -> {
+      this.creating.remove(fingerprint, creation);
+      if (throwable == null) {
+        creation.future.complete(thumbnail);
+      } else {
+        creation.future.completeExceptionally(throwable);
+      }
+    });
+    return creation.future;
+  }
+
+  private CompletableFuture<Thumbnail> create(File file, GenerationToken token) {
+    return CompletableFuture.supplyAsync(() -> {
+          token.throwIfCancelled();
+          return read(file);
+        }, this.readPool)
+        .thenApplyAsync(mapped -> decode(file, mapped, token), this.decodePool)
+        .thenApplyAsync(image -> {
+          if (token.isCancelled()) {
+            image.getImage().flush();
+            token.throwIfCancelled();
+          }
+          Thumbnail thumbnail = scale(image);
+          // written outside the token's lock so cancelling does not wait for the disk; a thumbnail
+          // that gets in just as its load is cancelled is still right, as the cache is keyed by content
+          token.throwIfCancelled();
+          this.diskCache.put(file, thumbnail);
+          return thumbnail;
+        }, this.scalePool);
+  }
+
+  /**
+   * Stop all worker threads. Work already queued is discarded.
+   */
+  void shutdown() {
+    this.readPool.shutdownNow();
+    this.decodePool.shutdownNow();
+    this.scalePool.shutdownNow();
+  }
+
+  private MappedFile read(File file) {
+    long start = System.nanoTime();
+    try {
+      return MappedFile.map(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      Metrics.getInstance().recordRead(start);
+    }
+  }
+
+  private DecodedImage decode(File file, MappedFile mapped, GenerationToken token) {
+    long start = System.nanoTime();
+    try {
+      token.throwIfCancelled();
+      return this.decoder.decode(file, mapped.buffer(), token);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      mapped.close();
+      Metrics.getInstance().recordDecode(start);
+    }
+  }
+
+  private Thumbnail scale(DecodedImage decoded) {
+    long start = System.nanoTime();
+    BufferedImage image = decoded.getImage();
+    // fit in a THUMBNAIL_SIZE square, rounded as Scalr does
+    float ratio = (float) image.getHeight() / image.getWidth();
+    int width = ratio <= 1 ? THUMBNAIL_SIZE : Math.round(THUMBNAIL_SIZE / ratio);
+    int height = ratio <= 1 ? Math.round(THUMBNAIL_SIZE * ratio) : THUMBNAIL_SIZE;
+    BufferedImage scaled = Main.getScalingEngine().scale(image, Math.max(1, width), Math.max(1, height));
+    image.flush();
+    Thumbnail thumbnail;
+    try {
+      thumbnail = Thumbnail.fromImage(scaled, decoded.getOriginalWidth(), decoded.getOriginalHeight());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Metrics.getInstance().recordScale(start);
+    return thumbnail;
+  }
+
+  private static class Creation {
+    private final GenerationToken token;
+    private final CompletableFuture<Thumbnail> future = new CompletableFuture<>();
+
+    Creation(GenerationToken token) {
+      this.token = token;
+    }
+  }
+}
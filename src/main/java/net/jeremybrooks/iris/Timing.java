@@ -0,0 +1,66 @@
+package net.jeremybrooks.iris;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Summary of a {@link Histogram}, shown as a composite attribute in jconsole.
+ * All times are in milliseconds.
+ */
+public class Timing {
+  private final long count;
+  private final double meanMillis;
+  private final double p50Millis;
+  private final double p95Millis;
+  private final double p99Millis;
+  private final double maxMillis;
+
+  /**
+   * Create a timing summary.
+   *
+   * @param count      number of durations recorded.
+   * @param meanMillis mean duration.
+   * @param p50Millis  median duration.
+   * @param p95Millis  95th percentile duration.
+   * @param p99Millis  99th percentile duration.
+   * @param maxMillis  longest duration.
+   */
+  @ConstructorProperties({"count", "meanMillis", "p50Millis", "p95Millis", "p99Millis", "maxMillis"})
+  public Timing(long count, double meanMillis, double p50Millis, double p95Millis, double p99Millis, double maxMillis) {
+    this.count = count;
+    this.meanMillis = meanMillis;
+    this.p50Millis = p50Millis;
+    this.p95Millis = p95Millis;
+    this.p99Millis = p99Millis;
+    this.maxMillis = maxMillis;
+  }
+
+  public long getCount() {
+    return this.count;
+  }
+
+  public double getMeanMillis() {
+    return this.meanMillis;
+  }
+
+  public double getP50Millis() {
+    return this.p50Millis;
+  }
+
+  public double getP95Millis() {
+    return this.p95Millis;
+  }
+
+  public double getP99Millis() {
+    return this.p99Millis;
+  }
+
+  public double getMaxMillis() {
+    return this.maxMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1f p50=%.1f p95=%.1f p99=%.1f max=%.1f ms",
+        this.count, this.meanMillis, this.p50Millis, this.p95Millis, this.p99Millis, this.maxMillis);
+  }
+}
@@ -0,0 +1,167 @@
+package net.jeremybrooks.iris;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread safe least recently used cache limited by the total weight of its values
+ * rather than by the number of entries.
+ *
+ * When adding a value would take the cache over its maximum weight, the least recently used
+ * entries are evicted until it fits. A single value heavier than the maximum is not cached.
+ *
+ * @param <K> key type.
+ * @param <V> value type.
+ */
+class WeightedLruCache<K, V> {
+  private Logger logger = LogManager.getLogger();
+  private final String name;
+  private final ToLongFunction<V> weigher;
+  private final LinkedHashMap<K, V> map = new LinkedHashMap<>(256, 0.75f, true);
+  private long maxWeight;
+  private long weight;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Create a new cache.
+   *
+   * @param name      name used in log messages.
+   * @param maxWeight maximum total weight of all values.
+   * @param weigher   function returning the weight of a value.
+   */
+  WeightedLruCache(String name, long maxWeight, ToLongFunction<V> weigher) {
+    this.name = name;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  /**
+   * Get a value and mark it as most recently used.
+   *
+   * @param key the key.
+   * @return the value, or null if it is not cached.
+   */
+  synchronized V get(K key) {
+    V value = this.map.get(key);
+    if (value == null) {
+      this.misses++;
+    } else {
+      this.hits++;
+    }
+    return value;
+  }
+
+  /**
+   * Check for a key without changing its position or the hit counts.
+   *
+   * @param key the key.
+   * @return true if the key is cached.
+   */
+  synchronized boolean containsKey(K key) {
+    return this.map.containsKey(key);
+  }
+
+  /**
+   * Add a value, replacing any existing value for the key, and evict entries as needed.
+   *
+   * @param key   the key.
+   * @param value the value.
+   */
+  synchronized void put(K key, V value) {
+    long valueWeight = this.weigher.applyAsLong(value);
+    remove(key);
+    if (valueWeight > this.maxWeight) {
+      logger.warn(String.format("%s: %s is larger than the cache (%d bytes); not caching.", this.name, key, valueWeight));
+      return;
+    }
+    evictTo(this.maxWeight - valueWeight);
+    this.map.put(key, value);
+    this.weight += valueWeight;
+  }
+
+  /**
+   * Remove a value.
+   *
+   * @param key the key.
+   * @return the removed value, or null if it was not cached.
+   */
+  synchronized V remove(K key) {
+    V value = this.map.remove(key);
+    if (value != null) {
+      this.weight -= this.weigher.applyAsLong(value);
+    }
+    return value;
+  }
+
+  /**
+   * Remove all values.
+   */
+  synchronized void clear() {
+    this.map.clear();
+    this.weight = 0;
+  }
+
+  /**
+   * Evict least recently used entries until the total weight is no more than the target.
+   *
+   * @param targetWeight the weight to shrink to.
+   * @return number of entries evicted.
+   */
+  synchronized int evictTo(long targetWeight) {
+    int count = 0;
+    Iterator<Map.Entry<K, V>> iterator = this.map.entrySet().iterator();
+    while (this.weight > targetWeight && iterator.hasNext()) {
+      Map.Entry<K, V> entry = iterator.next();
+      this.weight -= this.weigher.applyAsLong(entry.getValue());
+      iterator.remove();
+      count++;
+    }
+    this.evictions += count;
+    if (count > 0) {
+      logger.debug(String.format("%s: evicted %d entries; %d bytes in %d entries remain.",
+          this.name, count, this.weight, this.map.size()));
+    }
+    return count;
+  }
+
+  /**
+   * Change the maximum weight, evicting entries if the cache is now over it.
+   *
+   * @param maxWeight new maximum weight.
+   */
+  synchronized void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+    evictTo(maxWeight);
+  }
+
+  synchronized long getMaxWeight() {
+    return this.maxWeight;
+  }
+
+  synchronized long getWeight() {
+    return this.weight;
+  }
+
+  synchronized int size() {
+    return this.map.size();
+  }
+
+  synchronized long getHits() {
+    return this.hits;
+  }
+
+  synchronized long getMisses() {
+    return this.misses;
+  }
+
+  synchronized long getEvictions() {
+    return this.evictions;
+  }
+}